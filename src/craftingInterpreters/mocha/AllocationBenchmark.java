@@ -0,0 +1,39 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.List;
+
+// Heap bytes allocated per iteration of a counting loop, run once with the counter
+// inside the small-number cache and once offset past it. The counter escapes into
+// a global every iteration; run with -Dmocha.unboxed=false to box it throughout.
+public class AllocationBenchmark {
+    private static final int ROUNDS = 500;
+
+    public static void main(String[] args) {
+        int iterations = Benchmarks.count(args, "allocation_benchmark [iterations]", Numbers.CACHE_HIGH, 1);
+        double cached = bytesPerIteration(0, iterations);
+        double uncached = bytesPerIteration(1000000, iterations);
+        System.out.printf("%-28s %s%n", "unboxed locals:", Interpreter.UNBOXED);
+        System.out.printf("%-28s %.1f bytes/iteration%n", "counter inside the cache:", cached);
+        System.out.printf("%-28s %.1f bytes/iteration%n", "counter outside the cache:", uncached);
+        System.out.printf("%-28s %.1f bytes/iteration%n", "saved by the cache:", uncached - cached);
+    }
+
+    private static double bytesPerIteration(int start, int iterations) {
+        String source = "var last;\n"
+                + "for (var i = " + start + "; i < " + (start + iterations) + "; i = i + 1) { last = i; }\n";
+        Compilation compilation = Mocha.compile(null, source);
+        if (compilation.hadError) throw new IllegalStateException("benchmark source did not compile");
+        List<Stmt> statements = compilation.statements;
+
+        Interpreter interpreter = new Interpreter();
+        // Warm up so the measured rounds see the specialized nodes and compiled code.
+        for (int i = 0; i < ROUNDS; i++) {
+            interpreter.interpret(statements);
+        }
+        long before = Benchmarks.allocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            interpreter.interpret(statements);
+        }
+        return (double) (Benchmarks.allocatedBytes() - before) / ((long) ROUNDS * iterations);
+    }
+}
@@ -0,0 +1,51 @@
+package src.craftingInterpreters.mocha;
+
+// Runs each case on the tree-walker and on --vm and reports any whose printed
+// output or runtime error differs between the two. Exits 1 if one did.
+public class BackendCheck {
+    private static final String[][] CASES = {
+            {"invoke on a missing method runs no arguments",
+                    "fun f() { print \"ran\"; return 1; }\nclass A {}\nvar a = A();\na.m(f());\n"},
+            {"invoke on nil runs no arguments",
+                    "fun f() { print \"ran\"; return 1; }\nvar n = nil;\nn.m(f());\n"},
+            {"set on nil runs no value",
+                    "fun f() { print \"ran\"; return 1; }\nvar n = nil;\nn.x = f();\n"},
+            {"super invoke on a missing method runs no arguments",
+                    "fun f() { print \"ran\"; return 1; }\nclass A {}\nclass B < A { m() { super.m(f()); } }\nB().m();\n"},
+            {"invoke on a field or method runs its arguments",
+                    "fun f() { print \"ran\"; return 1; }\nclass A { m(x) { return x + 1; } }\nvar a = A();\n"
+                            + "print a.m(f());\na.g = f;\nprint a.g();\n"},
+            {"set on an instance runs its value",
+                    "fun f() { print \"ran\"; return 1; }\nclass A {}\nvar a = A();\na.x = f();\nprint a.x;\n"},
+            {"recursion through a frame wider than 256 slots", wideFrame()},
+    };
+
+    // 250 locals, then a sum nested 200 deep on every call before it recurses
+    // until the VM's stack has grown several times. Each call must reserve more
+    // than a fixed headroom above where it starts.
+    private static String wideFrame() {
+        StringBuilder source = new StringBuilder("fun wide(n) {\n");
+        for (int i = 0; i < 250; i++) {
+            source.append("  var v").append(i).append(" = ").append(i).append(";\n");
+        }
+        source.append("  var sum = ").append("v1 + (".repeat(200)).append("v249").append(")".repeat(200)).append(";\n")
+                .append("  if (n == 0) return sum;\n  return wide(n - 1) + sum;\n}\nprint wide(300);\n");
+        return source.toString();
+    }
+
+    public static void main(String[] args) {
+        Checks.compare(CASES, "tree", source -> run(source, false), "vm", source -> run(source, true));
+    }
+
+    private static String run(String source, boolean onVm) {
+        Compilation compilation = Mocha.compile(null, source);
+        if (compilation.hadError) throw new IllegalStateException("case did not compile");
+        return Checks.capture(() -> {
+            if (onVm) {
+                new VM().interpret(new BytecodeCompiler(compilation).compile(compilation.statements));
+            } else {
+                new Interpreter().interpret(compilation.statements);
+            }
+        });
+    }
+}
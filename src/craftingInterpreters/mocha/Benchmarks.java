@@ -0,0 +1,25 @@
+package src.craftingInterpreters.mocha;
+
+import java.lang.management.ManagementFactory;
+
+// Shared by the *Benchmark programs.
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    // The one optional count argument, or fallback without one. Exits with a
+    // usage error on more arguments or a count below minimum.
+    static int count(String[] args, String usage, int fallback, int minimum) {
+        int count = 1 == args.length ? Integer.parseInt(args[0]) : fallback;
+        if (1 < args.length || minimum > count) {
+            System.err.println("Usage: " + usage + ", at least " + minimum);
+            System.exit(64);
+        }
+        return count;
+    }
+
+    // Bytes allocated so far by the calling thread.
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,212 @@
+package src.craftingInterpreters.mocha;
+
+import static src.craftingInterpreters.mocha.Interpreter.checkNumberOperands;
+import static src.craftingInterpreters.mocha.Interpreter.isEqual;
+
+// Executable behaviour of an Expr.Binary site. Every site starts out
+// UNINITIALIZED and rewrites itself on first execution to the specialization
+// for the operand types it sees. A specialization whose guard fails
+// deoptimizes the site to GENERIC for good.
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+    static final BinaryNode GENERIC = new Generic();
+
+    abstract Object execute(Expr.Binary site, Object left, Object right);
+
+    final Object deoptimize(Expr.Binary site, Object left, Object right) {
+        site.node = GENERIC;
+        return GENERIC.execute(site, left, right);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName();
+    }
+
+    private static final class Uninitialized extends BinaryNode {
+        private static final BinaryNode NUMBER_ADD = new NumberAdd();
+        private static final BinaryNode STRING_CONCAT = new StringConcat();
+        private static final BinaryNode NUMBER_SUBTRACT = new NumberSubtract();
+        private static final BinaryNode NUMBER_MULTIPLY = new NumberMultiply();
+        private static final BinaryNode NUMBER_DIVIDE = new NumberDivide();
+        private static final BinaryNode NUMBER_GREATER = new NumberGreater();
+        private static final BinaryNode NUMBER_GREATER_EQUAL = new NumberGreaterEqual();
+        private static final BinaryNode NUMBER_LESS = new NumberLess();
+        private static final BinaryNode NUMBER_LESS_EQUAL = new NumberLessEqual();
+        private static final BinaryNode EQUAL = new Equal();
+        private static final BinaryNode NOT_EQUAL = new NotEqual();
+
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            BinaryNode node = specialize(site.operator.type, left, right);
+            site.node = node;
+            return node.execute(site, left, right);
+        }
+
+        private static BinaryNode specialize(TokenType operator, Object left, Object right) {
+            switch (operator) {
+                case EQUAL_EQUAL:
+                    return EQUAL;
+                case BANG_EQUAL:
+                    return NOT_EQUAL;
+                case PLUS:
+                    if (left instanceof String && right instanceof String) return STRING_CONCAT;
+                    break;
+            }
+            if (!(left instanceof Double) || !(right instanceof Double)) return GENERIC;
+            return switch (operator) {
+                case PLUS -> NUMBER_ADD;
+                case MINUS -> NUMBER_SUBTRACT;
+                case STAR -> NUMBER_MULTIPLY;
+                case SLASH -> NUMBER_DIVIDE;
+                case GREATER -> NUMBER_GREATER;
+                case GREATER_EQUAL -> NUMBER_GREATER_EQUAL;
+                case LESS -> NUMBER_LESS;
+                case LESS_EQUAL -> NUMBER_LESS_EQUAL;
+                default -> GENERIC;
+            };
+        }
+    }
+
+    // Number specializations. The interpreter can also drive these with unboxed
+    // operands through apply/test, keeping intermediate results off the heap.
+    abstract static class NumberArithmetic extends BinaryNode {
+        abstract double apply(double left, double right);
+
+        @Override
+        final Object execute(Expr.Binary site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return Numbers.box(this.apply((double) left, (double) right));
+            return this.deoptimize(site, left, right);
+        }
+    }
+
+    abstract static class NumberComparison extends BinaryNode {
+        abstract boolean test(double left, double right);
+
+        @Override
+        final Object execute(Expr.Binary site, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) return this.test((double) left, (double) right);
+            return this.deoptimize(site, left, right);
+        }
+    }
+
+    private static final class NumberAdd extends NumberArithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left + right;
+        }
+    }
+
+    private static final class StringConcat extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            if (left instanceof String a && right instanceof String b) return a + b;
+            return this.deoptimize(site, left, right);
+        }
+    }
+
+    private static final class NumberSubtract extends NumberArithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left - right;
+        }
+    }
+
+    private static final class NumberMultiply extends NumberArithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left * right;
+        }
+    }
+
+    private static final class NumberDivide extends NumberArithmetic {
+        @Override
+        double apply(double left, double right) {
+            return left / right;
+        }
+    }
+
+    private static final class NumberGreater extends NumberComparison {
+        @Override
+        boolean test(double left, double right) {
+            return left > right;
+        }
+    }
+
+    private static final class NumberGreaterEqual extends NumberComparison {
+        @Override
+        boolean test(double left, double right) {
+            return left >= right;
+        }
+    }
+
+    private static final class NumberLess extends NumberComparison {
+        @Override
+        boolean test(double left, double right) {
+            return left < right;
+        }
+    }
+
+    private static final class NumberLessEqual extends NumberComparison {
+        @Override
+        boolean test(double left, double right) {
+            return left <= right;
+        }
+    }
+
+    private static final class Equal extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            return isEqual(left, right);
+        }
+    }
+
+    private static final class NotEqual extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            return !isEqual(left, right);
+        }
+    }
+
+    // The unspecialized semantics, checking operand types on every execution.
+    private static final class Generic extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary site, Object left, Object right) {
+            Token operator = site.operator;
+            switch (operator.type) {
+                case GREATER:
+                    checkNumberOperands(operator, left, right);
+                    return (double) left > (double) right;
+                case GREATER_EQUAL:
+                    checkNumberOperands(operator, left, right);
+                    return (double) left >= (double) right;
+                case LESS:
+                    checkNumberOperands(operator, left, right);
+                    return (double) left < (double) right;
+                case LESS_EQUAL:
+                    checkNumberOperands(operator, left, right);
+                    return (double) left <= (double) right;
+                case BANG_EQUAL:
+                    return !isEqual(left, right);
+                case EQUAL_EQUAL:
+                    return isEqual(left, right);
+                case MINUS:
+                    checkNumberOperands(operator, left, right);
+                    return Numbers.box((double) left - (double) right);
+                case PLUS:
+                    if (left instanceof Double && right instanceof Double) {
+                        return Numbers.box((double) left + (double) right);
+                    } else if (left instanceof String && right instanceof String) {
+                        return left + (String) right;
+                    }
+                    throw new RuntimeError(operator,
+                            "Operands must be two numbers or two strings.");
+                case SLASH:
+                    return Numbers.box((double) left / (double) right);
+                case STAR:
+                    return Numbers.box((double) left * (double) right);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.List;
+
+// Compiles a resolved program into bytecode for the VM. Locals live in stack
+// slots of their function's frame and captured locals become upvalues, so the
+// compiler tracks scopes itself instead of using the Resolver's depths.
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+
+    private FunctionState current;
+    private int line = 1;
+    private final Compilation compilation;
+
+    BytecodeCompiler(Compilation compilation) {
+        this.compilation = compilation;
+    }
+
+    VmFunction compile(List<Stmt> statements) {
+        this.current = new FunctionState(null, FunctionType.SCRIPT, null);
+        try {
+            for (Stmt statement : statements) {
+                this.compile(statement);
+            }
+        } catch (StackOverflowError overflow) {
+            // Reported like Mocha.compile's; the caller sees hadError and drops the result.
+            this.compilation.error(this.line, "Code nested too deeply.");
+            return null;
+        }
+        return this.endFunction();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        this.beginScope();
+        for (Stmt statement : stmt.statements) {
+            this.compile(statement);
+        }
+        this.endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        this.line = stmt.name.line;
+        int nameConstant = this.identifierConstant(stmt.name);
+        boolean local = 0 < this.current.scopeDepth;
+        int classSlot = -1;
+        if (local) {
+            // The name's slot sits below the "super" scope, so reserve it up front.
+            if (null != stmt.superclass) this.emit(OpCode.NIL);
+            classSlot = this.addLocal(stmt.name);
+            this.markInitialized();
+        }
+
+        if (null != stmt.superclass) {
+            this.visitVariableExpr(stmt.superclass);
+            this.beginScope();
+            this.addLocal(syntheticToken("super"));
+            this.markInitialized();
+        }
+        this.emitShort(OpCode.CLASS, nameConstant);
+        if (null != stmt.superclass) {
+            this.line = stmt.superclass.name.line;
+            this.emit(OpCode.INHERIT);
+        }
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init")
+                    ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            this.function(method, type);
+            this.line = method.name.line;
+            this.emitShort(OpCode.METHOD, this.identifierConstant(method.name));
+        }
+
+        if (!local) {
+            this.emitShort(OpCode.DEFINE_GLOBAL, nameConstant);
+        } else if (null != stmt.superclass) {
+            this.emitByte(OpCode.SET_LOCAL, classSlot);
+            this.emit(OpCode.POP);
+        }
+        if (null != stmt.superclass) {
+            this.endScope();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        this.compile(stmt.expression);
+        this.emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        this.line = stmt.name.line;
+        if (0 < this.current.scopeDepth) {
+            // Defined before the body so the function can call itself.
+            this.addLocal(stmt.name);
+            this.markInitialized();
+            this.function(stmt, FunctionType.FUNCTION);
+        } else {
+            this.function(stmt, FunctionType.FUNCTION);
+            this.emitShort(OpCode.DEFINE_GLOBAL, this.identifierConstant(stmt.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        this.compile(stmt.condition);
+        int thenJump = this.emitJump(OpCode.JUMP_IF_FALSE);
+        this.emit(OpCode.POP);
+        this.compile(stmt.thenBranch);
+        int elseJump = this.emitJump(OpCode.JUMP);
+        this.patchJump(thenJump);
+        // The else path still has the condition that the then path popped.
+        this.adjustStack(1);
+        this.emit(OpCode.POP);
+        if (null != stmt.elseBranch) this.compile(stmt.elseBranch);
+        this.patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        this.compile(stmt.expression);
+        this.emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        this.line = stmt.keyword.line;
+        if (null == stmt.value) {
+            this.emitReturn();
+        } else {
+            this.compile(stmt.value);
+            this.emit(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (null != stmt.initializer) {
+            this.compile(stmt.initializer);
+        } else {
+            this.line = stmt.name.line;
+            this.emit(OpCode.NIL);
+        }
+        if (0 < this.current.scopeDepth) {
+            this.addLocal(stmt.name);
+            this.markInitialized();
+        } else {
+            this.line = stmt.name.line;
+            this.emitShort(OpCode.DEFINE_GLOBAL, this.identifierConstant(stmt.name));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = this.chunk().count;
+        this.compile(stmt.condition);
+        int exitJump = this.emitJump(OpCode.JUMP_IF_FALSE);
+        this.emit(OpCode.POP);
+        this.compile(stmt.body);
+        this.emitLoop(loopStart);
+        this.patchJump(exitJump);
+        this.adjustStack(1);
+        this.emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        this.compile(expr.value);
+        this.line = expr.name.line;
+        this.setVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        this.compile(expr.left);
+        this.compile(expr.right);
+        this.line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG_EQUAL -> this.emit(OpCode.NOT_EQUAL);
+            case EQUAL_EQUAL -> this.emit(OpCode.EQUAL);
+            case GREATER -> this.emit(OpCode.GREATER);
+            case GREATER_EQUAL -> this.emit(OpCode.GREATER_EQUAL);
+            case LESS -> this.emit(OpCode.LESS);
+            case LESS_EQUAL -> this.emit(OpCode.LESS_EQUAL);
+            case PLUS -> this.emit(OpCode.ADD);
+            case MINUS -> this.emit(OpCode.SUBTRACT);
+            case STAR -> this.emit(OpCode.MULTIPLY);
+            case SLASH -> this.emit(OpCode.DIVIDE);
+            default -> this.emit(OpCode.NIL);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int argCount = expr.arguments.size();
+        // INVOKE and SUPER_INVOKE look the method up after the arguments, so a
+        // missing one is checked first whenever the arguments could run anything.
+        boolean inert = this.isInert(expr.arguments);
+        if (expr.callee instanceof Expr.Get get) {
+            this.compile(get.object);
+            if (!inert) {
+                this.line = get.name.line;
+                this.emitShort(OpCode.CHECK_PROPERTY, this.identifierConstant(get.name));
+            }
+            this.compileArguments(expr.arguments);
+            this.line = get.name.line;
+            this.emitShort(OpCode.INVOKE, this.identifierConstant(get.name));
+            this.emitRaw(argCount);
+            this.adjustStack(-argCount);
+            return null;
+        }
+        if (expr.callee instanceof Expr.Super superExpr) {
+            this.line = superExpr.keyword.line;
+            this.namedVariable(syntheticToken("this"));
+            if (!inert) {
+                this.namedVariable(syntheticToken("super"));
+                this.line = superExpr.method.line;
+                this.emitShort(OpCode.CHECK_SUPER, this.identifierConstant(superExpr.method));
+            }
+            this.compileArguments(expr.arguments);
+            this.line = superExpr.keyword.line;
+            this.namedVariable(syntheticToken("super"));
+            this.line = superExpr.method.line;
+            this.emitShort(OpCode.SUPER_INVOKE, this.identifierConstant(superExpr.method));
+            this.emitRaw(argCount);
+            this.adjustStack(-argCount - 1);
+            return null;
+        }
+        this.compile(expr.callee);
+        this.compileArguments(expr.arguments);
+        this.line = expr.paren.line;
+        this.emitByte(OpCode.CALL, argCount);
+        this.adjustStack(-argCount);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        this.compile(expr.object);
+        this.line = expr.name.line;
+        this.emitShort(OpCode.GET_PROPERTY, this.identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        this.compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        this.compile(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        this.compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (null == expr.value) {
+            this.emit(OpCode.NIL);
+        } else if (Boolean.TRUE.equals(expr.value)) {
+            this.emit(OpCode.TRUE);
+        } else if (Boolean.FALSE.equals(expr.value)) {
+            this.emit(OpCode.FALSE);
+        } else {
+            this.emitShort(OpCode.CONSTANT, this.makeConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        this.compile(expr.left);
+        this.line = expr.operator.line;
+        if (TokenType.OR == expr.operator.type) {
+            int elseJump = this.emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = this.emitJump(OpCode.JUMP);
+            this.patchJump(elseJump);
+            this.emit(OpCode.POP);
+            this.compile(expr.right);
+            this.patchJump(endJump);
+        } else {
+            int endJump = this.emitJump(OpCode.JUMP_IF_FALSE);
+            this.emit(OpCode.POP);
+            this.compile(expr.right);
+            this.patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        this.compile(expr.object);
+        if (!this.isInert(List.of(expr.value))) {
+            this.line = expr.name.line;
+            this.emit(OpCode.CHECK_INSTANCE);
+        }
+        this.compile(expr.value);
+        this.line = expr.name.line;
+        this.emitShort(OpCode.SET_PROPERTY, this.identifierConstant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        this.line = expr.keyword.line;
+        this.namedVariable(syntheticToken("this"));
+        this.namedVariable(syntheticToken("super"));
+        this.line = expr.method.line;
+        this.emitShort(OpCode.GET_SUPER, this.identifierConstant(expr.method));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        this.line = expr.keyword.line;
+        this.namedVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        this.compile(expr.right);
+        this.line = expr.operator.line;
+        if (TokenType.BANG == expr.operator.type) {
+            this.emit(OpCode.NOT);
+        } else {
+            this.emit(OpCode.NEGATE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        this.line = expr.name.line;
+        this.namedVariable(expr.name);
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compileArguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            this.compile(argument);
+        }
+    }
+
+    private void function(Stmt.Function declaration, FunctionType type) {
+        FunctionState state = new FunctionState(this.current, type, declaration.name.lexeme);
+        this.current = state;
+        this.beginScope();
+        for (Token param : declaration.params) {
+            state.function.arity++;
+            this.adjustStack(1);
+            this.addLocal(param);
+            this.markInitialized();
+        }
+        for (Stmt statement : declaration.body) {
+            this.compile(statement);
+        }
+        VmFunction function = this.endFunction();
+
+        this.line = declaration.name.line;
+        this.emitShort(OpCode.CLOSURE, this.makeConstant(function));
+        for (int i = 0; i < function.upvalueCount; i++) {
+            this.emitRaw(state.upvalueIsLocal[i] ? 1 : 0);
+            this.emitRaw(state.upvalueIndex[i]);
+        }
+    }
+
+    private VmFunction endFunction() {
+        this.emitReturn();
+        VmFunction function = this.current.function;
+        function.chunk.freeze();
+        this.current = this.current.enclosing;
+        return function;
+    }
+
+    private void beginScope() {
+        this.current.scopeDepth++;
+    }
+
+    private void endScope() {
+        FunctionState state = this.current;
+        state.scopeDepth--;
+        while (0 < state.localCount && state.localDepth[state.localCount - 1] > state.scopeDepth) {
+            if (state.localCaptured[state.localCount - 1]) {
+                this.emit(OpCode.CLOSE_UPVALUE);
+            } else {
+                this.emit(OpCode.POP);
+            }
+            state.localCount--;
+        }
+    }
+
+    private int addLocal(Token name) {
+        FunctionState state = this.current;
+        if (MAX_LOCALS == state.localCount) {
+            this.compilation.error(name, "Too many local variables in function.");
+            return 0;
+        }
+        int slot = state.localCount++;
+        state.localNames[slot] = name.lexeme;
+        state.localDepth[slot] = -1;
+        state.localCaptured[slot] = false;
+        return slot;
+    }
+
+    private void markInitialized() {
+        FunctionState state = this.current;
+        state.localDepth[state.localCount - 1] = state.scopeDepth;
+    }
+
+    // Literals and locals can neither fail nor be seen to run, so the order
+    // they are evaluated in against the receiver check does not matter.
+    private boolean isInert(List<Expr> expressions) {
+        for (Expr expression : expressions) {
+            if (expression instanceof Expr.Literal) continue;
+            if (expression instanceof Expr.Variable variable
+                    && -1 != resolveLocal(this.current, variable.name.lexeme)) continue;
+            return false;
+        }
+        return true;
+    }
+
+    private void namedVariable(Token name) {
+        int slot = resolveLocal(this.current, name.lexeme);
+        if (-1 != slot) {
+            this.emitByte(OpCode.GET_LOCAL, slot);
+            return;
+        }
+        int upvalue = this.resolveUpvalue(this.current, name);
+        if (-1 != upvalue) {
+            this.emitByte(OpCode.GET_UPVALUE, upvalue);
+            return;
+        }
+        this.emitShort(OpCode.GET_GLOBAL, this.identifierConstant(name));
+    }
+
+    private void setVariable(Token name) {
+        int slot = resolveLocal(this.current, name.lexeme);
+        if (-1 != slot) {
+            this.emitByte(OpCode.SET_LOCAL, slot);
+            return;
+        }
+        int upvalue = this.resolveUpvalue(this.current, name);
+        if (-1 != upvalue) {
+            this.emitByte(OpCode.SET_UPVALUE, upvalue);
+            return;
+        }
+        this.emitShort(OpCode.SET_GLOBAL, this.identifierConstant(name));
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.localCount - 1; 0 <= i; i--) {
+            if (name.equals(state.localNames[i]) && -1 != state.localDepth[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name) {
+        if (null == state.enclosing) return -1;
+        int local = resolveLocal(state.enclosing, name.lexeme);
+        if (-1 != local) {
+            state.enclosing.localCaptured[local] = true;
+            return this.addUpvalue(state, name, local, true);
+        }
+        int upvalue = this.resolveUpvalue(state.enclosing, name);
+        if (-1 != upvalue) {
+            return this.addUpvalue(state, name, upvalue, false);
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, Token name, int index, boolean isLocal) {
+        int count = state.function.upvalueCount;
+        for (int i = 0; i < count; i++) {
+            if (state.upvalueIndex[i] == index && state.upvalueIsLocal[i] == isLocal) {
+                return i;
+            }
+        }
+        if (MAX_UPVALUES == count) {
+            this.compilation.error(name, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalueIsLocal[count] = isLocal;
+        state.upvalueIndex[count] = index;
+        return state.function.upvalueCount++;
+    }
+
+    private int identifierConstant(Token name) {
+        return this.makeConstant(name.lexeme);
+    }
+
+    private int makeConstant(Object value) {
+        int constant = this.chunk().addConstant(value);
+        if (0xffff < constant) {
+            this.compilation.error(this.line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return constant;
+    }
+
+    private Chunk chunk() {
+        return this.current.function.chunk;
+    }
+
+    private void emit(byte op) {
+        this.chunk().write(op, this.line);
+        this.adjustStack(stackEffect(op));
+    }
+
+    // Tracks the stack depth as code is emitted in order. Calls, whose effect
+    // depends on their operand, and the two places where a branch rejoins with
+    // a different depth adjust it themselves.
+    private void adjustStack(int delta) {
+        FunctionState state = this.current;
+        state.stackDepth += delta;
+        if (state.stackDepth > state.function.maxStack) state.function.maxStack = state.stackDepth;
+    }
+
+    private static int stackEffect(byte op) {
+        switch (op) {
+            case OpCode.CONSTANT, OpCode.NIL, OpCode.TRUE, OpCode.FALSE, OpCode.GET_LOCAL, OpCode.GET_GLOBAL,
+                 OpCode.GET_UPVALUE, OpCode.CLOSURE, OpCode.CLASS:
+                return 1;
+            case OpCode.POP, OpCode.DEFINE_GLOBAL, OpCode.SET_PROPERTY, OpCode.GET_SUPER, OpCode.EQUAL,
+                 OpCode.NOT_EQUAL, OpCode.GREATER, OpCode.GREATER_EQUAL, OpCode.LESS, OpCode.LESS_EQUAL,
+                 OpCode.ADD, OpCode.SUBTRACT, OpCode.MULTIPLY, OpCode.DIVIDE, OpCode.PRINT, OpCode.CLOSE_UPVALUE,
+                 OpCode.RETURN, OpCode.METHOD, OpCode.CHECK_SUPER:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private void emitRaw(int value) {
+        this.chunk().write(value, this.line);
+    }
+
+    private void emitByte(byte op, int operand) {
+        this.emit(op);
+        this.emitRaw(operand);
+    }
+
+    private void emitShort(byte op, int operand) {
+        this.emit(op);
+        this.emitRaw(operand >> 8);
+        this.emitRaw(operand);
+    }
+
+    private void emitReturn() {
+        if (FunctionType.INITIALIZER == this.current.type) {
+            this.emitByte(OpCode.GET_LOCAL, 0);
+        } else {
+            this.emit(OpCode.NIL);
+        }
+        this.emit(OpCode.RETURN);
+    }
+
+    private int emitJump(byte op) {
+        this.emit(op);
+        this.emitRaw(0xff);
+        this.emitRaw(0xff);
+        return this.chunk().count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = this.chunk().count - offset - 2;
+        if (0xffff < jump) {
+            this.compilation.error(this.line, "Too much code to jump over.");
+        }
+        this.chunk().code[offset] = (byte) (jump >> 8);
+        this.chunk().code[offset + 1] = (byte) jump;
+    }
+
+    private void emitLoop(int loopStart) {
+        this.emit(OpCode.LOOP);
+        int offset = this.chunk().count - loopStart + 2;
+        if (0xffff < offset) {
+            this.compilation.error(this.line, "Loop body too large.");
+        }
+        this.emitRaw(offset >> 8);
+        this.emitRaw(offset);
+    }
+
+    private static Token syntheticToken(String text) {
+        return new Token(TokenType.IDENTIFIER, text, null, 0);
+    }
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final FunctionType type;
+        final VmFunction function;
+        final String[] localNames = new String[MAX_LOCALS];
+        final int[] localDepth = new int[MAX_LOCALS];
+        final boolean[] localCaptured = new boolean[MAX_LOCALS];
+        final boolean[] upvalueIsLocal = new boolean[MAX_UPVALUES];
+        final int[] upvalueIndex = new int[MAX_UPVALUES];
+        int localCount;
+        int scopeDepth;
+        // Starts at one for slot zero.
+        int stackDepth = 1;
+
+        FunctionState(FunctionState enclosing, FunctionType type, String name) {
+            this.enclosing = enclosing;
+            this.type = type;
+            this.function = new VmFunction(name);
+            // Slot zero holds the callee, or the receiver inside methods.
+            int slot = this.localCount++;
+            this.localNames[slot] = FunctionType.METHOD == type || FunctionType.INITIALIZER == type ? "this" : "";
+            this.localDepth[slot] = 0;
+            this.function.maxStack = 1;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.List;
+
+// Times a call-heavy script, recursive fib, on the tree-walker and reports the
+// heap allocated per Mocha call. Run with -Dmocha.jitThreshold=<huge> to keep
+// every call interpreted.
+public class CallBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int n = Benchmarks.count(args, "call_benchmark [n]", 30, 1);
+        String source = "fun fib(n) { if (n < 2) return n; {} return fib(n - 1) + fib(n - 2); }\n"
+                + "fib(" + n + ");\n";
+        Compilation compilation = Mocha.compile(null, source);
+        if (compilation.hadError) throw new IllegalStateException("benchmark source did not compile");
+        List<Stmt> statements = compilation.statements;
+
+        // fib(n) makes 2 * fib(n + 1) - 1 calls.
+        long calls = 2 * fib(n + 1) - 1;
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(statements);
+        long best = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long before = Benchmarks.allocatedBytes();
+            long start = System.nanoTime();
+            interpreter.interpret(statements);
+            best = Math.min(best, System.nanoTime() - start);
+            bytes = Benchmarks.allocatedBytes() - before;
+        }
+        System.out.printf("%-20s %d%n", "calls per round:", calls);
+        System.out.printf("%-20s %d ms%n", "best round:", best / 1000000);
+        System.out.printf("%-20s %.1f ns%n", "per call:", (double) best / calls);
+        System.out.printf("%-20s %.1f bytes%n", "allocated per call:", (double) bytes / calls);
+    }
+
+    private static long fib(int n) {
+        return 2 > n ? n : fib(n - 1) + fib(n - 2);
+    }
+}
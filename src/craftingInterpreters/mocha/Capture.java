@@ -0,0 +1,14 @@
+package src.craftingInterpreters.mocha;
+
+// How a closure obtains one of its captured variables when it is created. With
+// depth >= 0 it boxes the local at (depth, slot) of the scope creating it into a
+// Cell; with depth -1 it shares the creating function's own capture number slot.
+final class Capture {
+    final int depth;
+    final int slot;
+
+    Capture(int depth, int slot) {
+        this.depth = depth;
+        this.slot = slot;
+    }
+}
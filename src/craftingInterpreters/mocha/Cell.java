@@ -0,0 +1,11 @@
+package src.craftingInterpreters.mocha;
+
+// Heap box for a local that some closure captured. The local's slot holds the
+// cell from then on, so the declaring scope and every closure share one value.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,45 @@
+package src.craftingInterpreters.mocha;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.function.Function;
+
+// Shared by the *Check programs, which each run the same scripts two ways and
+// report the ones whose printed output differs.
+final class Checks {
+    private Checks() {
+    }
+
+    // cases holds {description, source} pairs. Exits 1 if any case differed.
+    static void compare(String[][] cases, String firstName, Function<String, String> first,
+                        String secondName, Function<String, String> second) {
+        int failures = 0;
+        for (String[] c : cases) {
+            String one = first.apply(c[1]);
+            String two = second.apply(c[1]);
+            if (one.equals(two)) continue;
+            failures++;
+            System.out.println("FAIL " + c[0] + "\n-- " + firstName + ":\n" + one + "-- " + secondName + ":\n" + two);
+        }
+        System.out.println(failures + " of " + cases.length + " cases differ");
+        if (0 < failures) System.exit(1);
+    }
+
+    // Everything printed while running, errors included.
+    static String capture(Runnable run) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream capture = new PrintStream(output, true);
+        System.setOut(capture);
+        System.setErr(capture);
+        try {
+            run.run();
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        Mocha.hadRuntimeError = false;
+        return output.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class Chunk {
+    byte[] code = new byte[16];
+    int[] lines = new int[16];
+    int count;
+    Object[] constants;
+    private final List<Object> constantList = new ArrayList<>();
+    // Numbers and strings are interned so repeated literals and names share one slot.
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int value, int line) {
+        if (this.count == this.code.length) {
+            this.code = Arrays.copyOf(this.code, this.count * 2);
+            this.lines = Arrays.copyOf(this.lines, this.count * 2);
+        }
+        this.code[this.count] = (byte) value;
+        this.lines[this.count] = line;
+        this.count++;
+    }
+
+    int addConstant(Object value) {
+        if (value instanceof Double || value instanceof String) {
+            Integer index = this.constantIndex.get(value);
+            if (null != index) return index;
+            this.constantIndex.put(value, this.constantList.size());
+        }
+        this.constantList.add(value);
+        return this.constantList.size() - 1;
+    }
+
+    int constantCount() {
+        return this.constantList.size();
+    }
+
+    // Called once compilation of the owning function is done.
+    void freeze() {
+        this.code = Arrays.copyOf(this.code, this.count);
+        this.lines = Arrays.copyOf(this.lines, this.count);
+        this.constants = this.constantList.toArray();
+    }
+}
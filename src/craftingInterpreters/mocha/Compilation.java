@@ -0,0 +1,47 @@
+package src.craftingInterpreters.mocha;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// One source on its way from text to resolved statements. The Scanner, Parser,
+// Resolver and BytecodeCompiler report errors here rather than to global state,
+// so separate sources can be compiled on separate threads.
+final class Compilation {
+    // The script's path, shown with its errors when several scripts are loaded.
+    final String name;
+    final Symbols symbols = new Symbols();
+    private final List<String> errors = new ArrayList<>();
+    boolean hadError;
+    // Set once the source parsed and resolved without errors.
+    List<Stmt> statements;
+
+    Compilation(String name) {
+        this.name = name;
+    }
+
+    void error(int line, String message) {
+        this.report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (TokenType.EOF == token.type) {
+            this.report(token.line, " at end", message);
+        } else {
+            this.report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        this.errors.add("[line " + line + "] Error" + where + ": " + message);
+        this.hadError = true;
+    }
+
+    // Errors are held until now so that compilations running in parallel don't interleave them.
+    void printErrors(PrintStream out) {
+        for (String error : this.errors) {
+            out.println(null == this.name ? error : this.name + ": " + error);
+        }
+        this.errors.clear();
+    }
+}
@@ -0,0 +1,199 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs between the Resolver and execution. Folds operators whose operands are
+// literals, strips groupings and drops if/while statements whose condition is a
+// constant. Resolved nodes (variables, this, super) are kept as they are, so
+// their depths and slots stay valid. -Dmocha.fold=false turns the pass off.
+class ConstantFolder implements Expr.Visitor<Expr> {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("mocha.fold", "true"));
+
+    List<Stmt> fold(List<Stmt> statements) {
+        List<Stmt> folded = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            Stmt stmt = this.fold(statement);
+            if (null != stmt) folded.add(stmt);
+        }
+        return folded;
+    }
+
+    // The folded statement, or null when it can never run.
+    private Stmt fold(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression expression) {
+            return new Stmt.Expression(this.fold(expression.expression));
+        } else if (stmt instanceof Stmt.Print print) {
+            return new Stmt.Print(this.fold(print.expression));
+        } else if (stmt instanceof Stmt.Var var) {
+            if (null == var.initializer) return var;
+            return new Stmt.Var(var.name, this.fold(var.initializer));
+        } else if (stmt instanceof Stmt.Return ret) {
+            if (null == ret.value) return ret;
+            Stmt.Return folded = new Stmt.Return(ret.keyword, this.fold(ret.value));
+            folded.tailCall = ret.tailCall;
+            return folded;
+        } else if (stmt instanceof Stmt.Block block) {
+            Stmt.Block folded = new Stmt.Block(this.fold(block.statements));
+            folded.declarations = block.declarations;
+            return folded;
+        } else if (stmt instanceof Stmt.If ifStmt) {
+            return this.foldIf(ifStmt);
+        } else if (stmt instanceof Stmt.While whileStmt) {
+            Expr condition = this.fold(whileStmt.condition);
+            if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.value)) return null;
+            Stmt body = this.fold(whileStmt.body);
+            Stmt.While folded = new Stmt.While(condition, null == body ? empty() : body);
+            folded.scope = whileStmt.scope;
+            return folded;
+        } else if (stmt instanceof Stmt.Function function) {
+            // The declaration carries the resolver's captures and the JIT's state,
+            // so its body is folded in place instead of copying it.
+            this.foldBody(function);
+            return function;
+        } else if (stmt instanceof Stmt.Class klass) {
+            for (Stmt.Function method : klass.methods) {
+                this.foldBody(method);
+            }
+            return klass;
+        }
+        return stmt;
+    }
+
+    private Stmt foldIf(Stmt.If stmt) {
+        Expr condition = this.fold(stmt.condition);
+        Stmt thenBranch = this.fold(stmt.thenBranch);
+        Stmt elseBranch = null == stmt.elseBranch ? null : this.fold(stmt.elseBranch);
+        if (condition instanceof Expr.Literal literal) {
+            return Interpreter.isTruthy(literal.value) ? thenBranch : elseBranch;
+        }
+        return new Stmt.If(condition, null == thenBranch ? empty() : thenBranch, elseBranch);
+    }
+
+    private void foldBody(Stmt.Function function) {
+        List<Stmt> body = this.fold(function.body);
+        function.body.clear();
+        function.body.addAll(body);
+    }
+
+    private static Stmt empty() {
+        return new Stmt.Block(new ArrayList<>());
+    }
+
+    private Expr fold(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = this.fold(expr.value);
+        if (value == expr.value) return expr;
+        Expr.Assign folded = new Expr.Assign(expr.name, value);
+        folded.depth = expr.depth;
+        folded.slot = expr.slot;
+        folded.local = expr.local;
+        return folded;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = this.fold(expr.left);
+        Expr right = this.fold(expr.right);
+        Expr.Binary folded = left == expr.left && right == expr.right ? expr : new Expr.Binary(left, expr.operator, right);
+        if (left instanceof Expr.Literal a && right instanceof Expr.Literal b) {
+            try {
+                return new Expr.Literal(BinaryNode.GENERIC.execute(folded, a.value, b.value));
+            } catch (RuntimeException error) {
+                // A type error stays in the tree so it is still raised when, and if, it runs.
+            }
+        }
+        return folded;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        expr.arguments.replaceAll(this::fold);
+        Expr callee = this.fold(expr.callee);
+        if (callee == expr.callee) return expr;
+        return new Expr.Call(callee, expr.paren, expr.arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = this.fold(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return this.fold(expr.expression);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = this.fold(expr.left);
+        Expr right = this.fold(expr.right);
+        if (left instanceof Expr.Literal literal) {
+            // Same short circuit as the Interpreter: the deciding operand is the value.
+            boolean decided = TokenType.OR == expr.operator.type
+                    ? Interpreter.isTruthy(literal.value)
+                    : !Interpreter.isTruthy(literal.value);
+            return decided ? left : right;
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = this.fold(expr.object);
+        Expr value = this.fold(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = this.fold(expr.right);
+        Expr.Unary folded = right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+        if (right instanceof Expr.Literal literal) {
+            try {
+                return new Expr.Literal(UnaryNode.GENERIC.execute(folded, literal.value));
+            } catch (RuntimeException error) {
+                // As for binary operators, a type error is left to be raised at runtime.
+            }
+        }
+        return folded;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
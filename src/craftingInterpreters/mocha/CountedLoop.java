@@ -0,0 +1,37 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.List;
+
+// A while loop that LoopOptimizer recognized as `counter <op> limit` with the body
+// ending in `counter = counter + step`. The Interpreter runs it on a double instead
+// of re-reading and re-boxing the counter; body is the loop body minus that step.
+final class CountedLoop {
+    final Expr.Variable counter;
+    final TokenType comparison;
+    final Expr limit;
+    final double step;
+    final List<Stmt> body;
+    final int declarations;
+
+    CountedLoop(Expr.Variable counter, TokenType comparison, Expr limit, double step, List<Stmt> body, int declarations) {
+        this.counter = counter;
+        this.comparison = comparison;
+        this.limit = limit;
+        this.step = step;
+        this.body = body;
+        this.declarations = declarations;
+    }
+
+    boolean test(double i, double limit) {
+        switch (this.comparison) {
+            case LESS:
+                return i < limit;
+            case LESS_EQUAL:
+                return i <= limit;
+            case GREATER:
+                return i > limit;
+            default:
+                return i >= limit;
+        }
+    }
+}
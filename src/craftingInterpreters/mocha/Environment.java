@@ -1,22 +1,82 @@
 package src.craftingInterpreters.mocha;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Only the global environment maps names, to slots of its own that variable
+    // sites cache; local scopes are resolved to slots by the Resolver.
+    private final Map<String, Integer> globals;
+    private String[] names;
+    private Object[] slots;
+    private int count;
+    // Numbers stored unboxed live here, with NUMBER left in the matching object slot.
+    private double[] numbers;
+    private static final Object NUMBER = new Object();
 
     Environment() {
         this.enclosing = null;
+        this.globals = new HashMap<>();
+        this.names = new String[8];
+        this.slots = new Object[8];
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        this.globals = null;
+        this.slots = new Object[8];
+    }
+
+    // A block scope with exactly one slot per declaration in the block.
+    Environment(Environment enclosing, int size) {
+        this.enclosing = enclosing;
+        this.globals = null;
+        this.slots = new Object[size];
+    }
+
+    // A function scope whose first slots are the given arguments.
+    Environment(Environment enclosing, Object[] arguments) {
+        this.enclosing = enclosing;
+        this.globals = null;
+        this.slots = arguments;
+        this.count = arguments.length;
     }
 
     void define(String key, Object value) {
-        this.values.put(key, value);
+        // Claims the next slot for a new name in the same probe that finds an old one.
+        Integer slot = this.globals.putIfAbsent(key, this.count);
+        if (null != slot) {
+            this.slots[slot] = value;
+            return;
+        }
+        slot = this.define(value);
+        if (this.names.length < this.slots.length) this.names = Arrays.copyOf(this.names, this.slots.length);
+        this.names[slot] = key;
+    }
+
+    int define(Object value) {
+        if (this.count == this.slots.length) {
+            this.slots = Arrays.copyOf(this.slots, Math.max(8, this.count * 2));
+        }
+        this.slots[this.count] = value;
+        return this.count++;
+    }
+
+    int defineNumber(double value) {
+        int slot = this.define(NUMBER);
+        this.numbers()[slot] = value;
+        return slot;
+    }
+
+    private double[] numbers() {
+        if (null == this.numbers) {
+            this.numbers = new double[this.slots.length];
+        } else if (this.numbers.length < this.slots.length) {
+            this.numbers = Arrays.copyOf(this.numbers, this.slots.length);
+        }
+        return this.numbers;
     }
 
     Environment ancestor(int distance) {
@@ -29,32 +89,70 @@ public class Environment {
     }
 
     Object get(Token name) {
-        if (this.values.containsKey(name.lexeme)) {
-            return this.values.get(name.lexeme);
-        }
-        if (null != this.enclosing) {
-            return this.enclosing.get(name);
-        }
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+        return this.slots[this.globalSlot(name, 0)];
     }
 
-    void assign(Token name, Object value) {
-        if (this.values.containsKey(name.lexeme)) {
-            this.values.put(name.lexeme, value);
-            return;
-        }
-        if (null != this.enclosing) {
-            this.enclosing.assign(name, value);
-            return;
+    // Slot of the global called name. cached is the slot the site found last time,
+    // taken after a name check since the site may have run against another table.
+    int globalSlot(Token name, int cached) {
+        if (cached < this.count && name.lexeme.equals(this.names[cached])) return cached;
+        Integer slot = this.globals.get(name.lexeme);
+        if (null == slot) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+        return slot;
+    }
+
+    Object getGlobal(int slot) {
+        return this.slots[slot];
+    }
+
+    void assignGlobal(int slot, Object value) {
+        this.slots[slot] = value;
+    }
+
+    Object getAt(int distance, int slot) {
+        Environment environment = this.ancestor(distance);
+        Object value = environment.slots[slot];
+        // An unboxed number is boxed only when it escapes to generic code.
+        if (NUMBER == value) return Numbers.box(environment.numbers[slot]);
+        if (value instanceof Cell) return ((Cell) value).value;
+        return value;
+    }
+
+    double getNumberAt(int distance, int slot) {
+        Environment environment = this.ancestor(distance);
+        Object value = environment.slots[slot];
+        if (NUMBER == value) return environment.numbers[slot];
+        if (value instanceof Cell) value = ((Cell) value).value;
+        if (value instanceof Double) return (double) value;
+        throw new UnexpectedResult(value);
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        Environment environment = this.ancestor(distance);
+        if (environment.slots[slot] instanceof Cell cell) {
+            cell.value = value;
+        } else {
+            environment.slots[slot] = value;
         }
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
     }
 
-    Object getAt(Integer distance, String name) {
-        return this.ancestor(distance).values.get(name);
+    void assignNumberAt(int distance, int slot, double value) {
+        Environment environment = this.ancestor(distance);
+        if (environment.slots[slot] instanceof Cell cell) {
+            cell.value = Numbers.box(value);
+            return;
+        }
+        environment.numbers()[slot] = value;
+        environment.slots[slot] = NUMBER;
     }
 
-    void assignAt(Integer distance, Token name, Object value) {
-        this.ancestor(distance).values.put(name.lexeme, value);
+    // Moves a local into a Cell the first time a closure captures it.
+    Cell capture(int distance, int slot) {
+        Environment environment = this.ancestor(distance);
+        Object value = environment.slots[slot];
+        if (value instanceof Cell cell) return cell;
+        Cell cell = new Cell(NUMBER == value ? Numbers.box(environment.numbers[slot]) : value);
+        environment.slots[slot] = cell;
+        return cell;
     }
 }
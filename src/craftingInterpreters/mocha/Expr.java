@@ -16,6 +16,10 @@ abstract class Expr {
 
         R visitGroupingExpr(Grouping expr);
 
+        R visitInlineExpr(Inline expr);
+
+        R visitInvariantExpr(Invariant expr);
+
         R visitLiteralExpr(Literal expr);
 
         R visitLogicalExpr(Logical expr);
@@ -34,6 +38,9 @@ abstract class Expr {
     static class Assign extends Expr {
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot;
+        Resolver.Local local;
 
         Assign(Token name, Expr value) {
             this.name = name;
@@ -50,6 +57,8 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        BinaryNode node = BinaryNode.UNINITIALIZED;
+
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
             this.operator = operator;
@@ -82,6 +91,8 @@ abstract class Expr {
         final Expr object;
         final Token name;
 
+        PropertyCache cache = new PropertyCache();
+
         Get(Expr object, Token name) {
             this.object = object;
             this.name = name;
@@ -106,6 +117,39 @@ abstract class Expr {
         }
     }
 
+    static class Inline extends Expr {
+        final Call call;
+        final Stmt.Function function;
+        final Expr body;
+        boolean guardFailed;
+
+        Inline(Call call, Stmt.Function function, Expr body) {
+            this.call = call;
+            this.function = function;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitInlineExpr(this);
+        }
+    }
+
+    static class Invariant extends Expr {
+        final Expr expression;
+        final int index;
+
+        Invariant(Expr expression, int index) {
+            this.expression = expression;
+            this.index = index;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitInvariantExpr(this);
+        }
+    }
+
     static class Literal extends Expr {
         final Object value;
 
@@ -139,6 +183,8 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        PropertyCache cache = new PropertyCache();
+
         Set(Expr object, Token name, Expr value) {
             this.object = object;
             this.name = name;
@@ -154,6 +200,10 @@ abstract class Expr {
     static class Super extends Expr {
         final Token keyword;
         final Token method;
+        int depth = -1;
+        int slot;
+        int thisDepth = -1;
+        int thisSlot;
 
         Super(Token keyword, Token method) {
             this.keyword = keyword;
@@ -168,6 +218,8 @@ abstract class Expr {
 
     static class This extends Expr {
         final Token keyword;
+        int depth = -1;
+        int slot;
 
         This(Token keyword) {
             this.keyword = keyword;
@@ -182,6 +234,7 @@ abstract class Expr {
     static class Unary extends Expr {
         final Token operator;
         final Expr right;
+        UnaryNode node = UnaryNode.UNINITIALIZED;
 
         Unary(Token operator, Expr right) {
             this.operator = operator;
@@ -196,6 +249,9 @@ abstract class Expr {
 
     static class Variable extends Expr {
         final Token name;
+        int depth = -1;
+        int slot;
+        Resolver.Local local;
 
         Variable(Token name) {
             this.name = name;
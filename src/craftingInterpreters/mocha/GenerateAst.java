@@ -15,30 +15,32 @@ public class GenerateAst {
         String outputDir = args[0];
 
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign : Token name, Expr value",
-                "Binary : Expr left, Token operator, Expr right",
+                "Assign : Token name, Expr value | int depth = -1, int slot, Resolver.Local local",
+                "Binary : Expr left, Token operator, Expr right | BinaryNode node = BinaryNode.UNINITIALIZED",
                 "Call : Expr callee, Token paren, List<Expr> arguments",
-                "Get : Expr object, Token name",
+                "Get : Expr object, Token name | PropertyCache cache = new PropertyCache()",
                 "Grouping : Expr expression",
+                "Inline : Call call, Stmt.Function function, Expr body | boolean guardFailed",
+                "Invariant : Expr expression, int index",
                 "Literal : Object value",
                 "Logical : Expr left, Token operator, Expr right",
-                "Set : Expr object, Token name, Expr value",
-                "Super : Token keyword, Token method",
-                "This : Token keyword",
-                "Unary : Token operator, Expr right",
-                "Variable : Token name"
+                "Set : Expr object, Token name, Expr value | PropertyCache cache = new PropertyCache()",
+                "Super : Token keyword, Token method | int depth = -1, int slot, int thisDepth = -1, int thisSlot",
+                "This : Token keyword | int depth = -1, int slot",
+                "Unary : Token operator, Expr right | UnaryNode node = UnaryNode.UNINITIALIZED",
+                "Variable : Token name | int depth = -1, int slot, Resolver.Local local"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block : List<Stmt> statements",
+                "Block : List<Stmt> statements | int declarations",
                 "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
                 "Expression : Expr expression",
-                "Function : Token name, List<Token> params, List<Stmt> body",
+                "Function : Token name, List<Token> params, List<Stmt> body | Capture[] captures, int calls, JitCode compiled",
                 "If : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return : Token keyword, Expr value",
+                "Return : Token keyword, Expr value | boolean tailCall",
                 "Var : Token name, Expr initializer",
-                "While : Expr condition, Stmt body"
+                "While : Expr condition, Stmt body | int scope, int invariants, CountedLoop counted"
         ));
     }
 
@@ -55,7 +57,12 @@ public class GenerateAst {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
 //            System.out.println(fields);
-            defineType(writer, baseName, className, fields);
+            String annotations = null;
+            if (fields.contains("|")) {
+                annotations = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, annotations);
         }
         writer.println();
         writer.println(" abstract <R> R accept(Visitor<R> visitor);");
@@ -73,7 +80,8 @@ public class GenerateAst {
         writer.println(" }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String annotationList) {
         writer.println(" static class " + className + " extends " +
                 baseName + " {");
         // Constructor.
@@ -96,6 +104,12 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println(" final " + field + ";");
         }
+        // Mutable annotations filled in after parsing (resolver slots, specialized nodes).
+        if (null != annotationList) {
+            for (String annotation : annotationList.split(", ")) {
+                writer.println(" " + annotation + ";");
+            }
+        }
         writer.println(" }");
     }
 
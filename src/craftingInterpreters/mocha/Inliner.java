@@ -0,0 +1,311 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs after the ConstantFolder. A top-level function whose body is a single
+// `return expr;` of at most MAX_SIZE nodes, that captures nothing and does not
+// call itself, has its calls replaced by an Expr.Inline holding a copy of expr.
+// The Interpreter evaluates the copy against the call's arguments while the
+// global name still holds that function, and makes the call as before once it
+// has been reassigned. -Dmocha.inline=false turns the pass off, and
+// -Dmocha.inlineDump=true prints the decision made for each function.
+class Inliner implements Expr.Visitor<Expr> {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("mocha.inline", "true"));
+    static final boolean DUMP = Boolean.getBoolean("mocha.inlineDump");
+    // Largest return expression, counted in nodes, that is copied into call sites.
+    static final int MAX_SIZE = Integer.getInteger("mocha.inlineSize", 12);
+
+    // The body of each inlinable function, copied before any call in it is rewritten.
+    private final Map<String, Stmt.Function> candidates = new HashMap<>();
+    private final Map<Stmt.Function, Expr> bodies = new HashMap<>();
+    // Why each top-level function was not inlined, null for the ones that were.
+    private final Map<Stmt.Function, String> decisions = new LinkedHashMap<>();
+    private final Map<Stmt.Function, Integer> sites = new HashMap<>();
+
+    List<Stmt> inline(List<Stmt> statements) {
+        Map<String, Integer> declared = new HashMap<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function function) declared.merge(function.name.lexeme, 1, Integer::sum);
+        }
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function function)) continue;
+            String rejection = 1 < declared.get(function.name.lexeme) ? "declared more than once" : rejection(function);
+            this.decisions.put(function, rejection);
+            if (null != rejection) continue;
+            this.candidates.put(function.name.lexeme, function);
+            this.bodies.put(function, copy(((Stmt.Return) function.body.get(0)).value));
+        }
+        statements.replaceAll(this::inline);
+        if (DUMP) this.dump();
+        return statements;
+    }
+
+    // Why the function cannot be inlined, or null if it can.
+    private static String rejection(Stmt.Function function) {
+        if (1 != function.body.size() || !(function.body.get(0) instanceof Stmt.Return ret) || null == ret.value) {
+            return "body is not a single return";
+        }
+        if (0 != function.captures.length) return "captures variables";
+        if (calls(ret.value, function.name.lexeme)) return "recursive";
+        int size = size(ret.value);
+        if (0 > size) return "assigns a parameter";
+        if (MAX_SIZE < size) return "too large (" + size + " nodes)";
+        return null;
+    }
+
+    // Number of nodes in expr, or -1 if it assigns to a parameter.
+    private static int size(Expr expr) {
+        if (expr instanceof Expr.Assign assign) {
+            if (null != assign.local) return -1;
+            return add(1, size(assign.value));
+        } else if (expr instanceof Expr.Binary binary) {
+            return add(1 + size(binary.left), size(binary.right));
+        } else if (expr instanceof Expr.Logical logical) {
+            return add(1 + size(logical.left), size(logical.right));
+        } else if (expr instanceof Expr.Unary unary) {
+            return add(1, size(unary.right));
+        } else if (expr instanceof Expr.Grouping grouping) {
+            return size(grouping.expression);
+        } else if (expr instanceof Expr.Call call) {
+            int size = add(1, size(call.callee));
+            for (Expr argument : call.arguments) {
+                size = add(size, size(argument));
+            }
+            return size;
+        } else if (expr instanceof Expr.Get get) {
+            return add(1, size(get.object));
+        } else if (expr instanceof Expr.Set set) {
+            return add(1 + size(set.object), size(set.value));
+        }
+        return 1;
+    }
+
+    private static int add(int size, int more) {
+        return 0 > size || 0 > more ? -1 : size + more;
+    }
+
+    // Whether expr calls the global function called name.
+    private static boolean calls(Expr expr, String name) {
+        if (expr instanceof Expr.Call call) {
+            if (call.callee instanceof Expr.Variable variable && null == variable.local
+                    && name.equals(variable.name.lexeme)) {
+                return true;
+            }
+            for (Expr argument : call.arguments) {
+                if (calls(argument, name)) return true;
+            }
+            return calls(call.callee, name);
+        } else if (expr instanceof Expr.Assign assign) {
+            return calls(assign.value, name);
+        } else if (expr instanceof Expr.Binary binary) {
+            return calls(binary.left, name) || calls(binary.right, name);
+        } else if (expr instanceof Expr.Logical logical) {
+            return calls(logical.left, name) || calls(logical.right, name);
+        } else if (expr instanceof Expr.Unary unary) {
+            return calls(unary.right, name);
+        } else if (expr instanceof Expr.Grouping grouping) {
+            return calls(grouping.expression, name);
+        } else if (expr instanceof Expr.Get get) {
+            return calls(get.object, name);
+        } else if (expr instanceof Expr.Set set) {
+            return calls(set.object, name) || calls(set.value, name);
+        }
+        return false;
+    }
+
+    // A fresh copy of a body, so each site specializes its operators on its own.
+    // Parameters become references to the inlined call's arguments.
+    private static Expr copy(Expr expr) {
+        if (expr instanceof Expr.Variable variable) {
+            Expr.Variable copy = new Expr.Variable(variable.name);
+            if (null != variable.local || Resolver.INLINED == variable.depth) {
+                copy.depth = Resolver.INLINED;
+                copy.slot = variable.slot;
+            }
+            return copy;
+        } else if (expr instanceof Expr.Assign assign) {
+            return new Expr.Assign(assign.name, copy(assign.value));
+        } else if (expr instanceof Expr.Binary binary) {
+            return new Expr.Binary(copy(binary.left), binary.operator, copy(binary.right));
+        } else if (expr instanceof Expr.Logical logical) {
+            return new Expr.Logical(copy(logical.left), logical.operator, copy(logical.right));
+        } else if (expr instanceof Expr.Unary unary) {
+            return new Expr.Unary(unary.operator, copy(unary.right));
+        } else if (expr instanceof Expr.Grouping grouping) {
+            return new Expr.Grouping(copy(grouping.expression));
+        } else if (expr instanceof Expr.Call call) {
+            List<Expr> arguments = new ArrayList<>(call.arguments.size());
+            for (Expr argument : call.arguments) {
+                arguments.add(copy(argument));
+            }
+            return new Expr.Call(copy(call.callee), call.paren, arguments);
+        } else if (expr instanceof Expr.Get get) {
+            return new Expr.Get(copy(get.object), get.name);
+        } else if (expr instanceof Expr.Set set) {
+            return new Expr.Set(copy(set.object), set.name, copy(set.value));
+        }
+        return expr;
+    }
+
+    private void dump() {
+        for (Map.Entry<Stmt.Function, String> decision : this.decisions.entrySet()) {
+            Stmt.Function function = decision.getKey();
+            String outcome = null == decision.getValue()
+                    ? "inlined, " + this.sites.getOrDefault(function, 0) + " call sites"
+                    : "not inlined, " + decision.getValue();
+            System.err.println("[line " + function.name.line + "] fun " + function.name.lexeme + ": " + outcome);
+        }
+    }
+
+    private Stmt inline(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression expression) {
+            Expr expr = this.inline(expression.expression);
+            return expr == expression.expression ? stmt : new Stmt.Expression(expr);
+        } else if (stmt instanceof Stmt.Print print) {
+            Expr expr = this.inline(print.expression);
+            return expr == print.expression ? stmt : new Stmt.Print(expr);
+        } else if (stmt instanceof Stmt.Var var) {
+            if (null == var.initializer) return stmt;
+            Expr initializer = this.inline(var.initializer);
+            return initializer == var.initializer ? stmt : new Stmt.Var(var.name, initializer);
+        } else if (stmt instanceof Stmt.Return ret) {
+            if (null == ret.value) return stmt;
+            Expr value = this.inline(ret.value);
+            if (value == ret.value) return stmt;
+            Stmt.Return inlined = new Stmt.Return(ret.keyword, value);
+            // A call that became an Inline is no longer a tail call.
+            inlined.tailCall = ret.tailCall && value instanceof Expr.Call;
+            return inlined;
+        } else if (stmt instanceof Stmt.Block block) {
+            block.statements.replaceAll(this::inline);
+            return block;
+        } else if (stmt instanceof Stmt.If ifStmt) {
+            Expr condition = this.inline(ifStmt.condition);
+            Stmt thenBranch = this.inline(ifStmt.thenBranch);
+            Stmt elseBranch = null == ifStmt.elseBranch ? null : this.inline(ifStmt.elseBranch);
+            if (condition == ifStmt.condition && thenBranch == ifStmt.thenBranch && elseBranch == ifStmt.elseBranch) return stmt;
+            return new Stmt.If(condition, thenBranch, elseBranch);
+        } else if (stmt instanceof Stmt.While whileStmt) {
+            Expr condition = this.inline(whileStmt.condition);
+            Stmt body = this.inline(whileStmt.body);
+            if (condition == whileStmt.condition && body == whileStmt.body) return stmt;
+            Stmt.While inlined = new Stmt.While(condition, body);
+            inlined.scope = whileStmt.scope;
+            return inlined;
+        } else if (stmt instanceof Stmt.Function function) {
+            function.body.replaceAll(this::inline);
+        } else if (stmt instanceof Stmt.Class klass) {
+            for (Stmt.Function method : klass.methods) {
+                method.body.replaceAll(this::inline);
+            }
+        }
+        return stmt;
+    }
+
+    private Expr inline(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = this.inline(expr.value);
+        if (value == expr.value) return expr;
+        Expr.Assign inlined = new Expr.Assign(expr.name, value);
+        inlined.depth = expr.depth;
+        inlined.slot = expr.slot;
+        inlined.local = expr.local;
+        return inlined;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = this.inline(expr.left);
+        Expr right = this.inline(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        expr.arguments.replaceAll(this::inline);
+        Expr callee = this.inline(expr.callee);
+        Expr.Call call = callee == expr.callee ? expr : new Expr.Call(callee, expr.paren, expr.arguments);
+        if (!(call.callee instanceof Expr.Variable variable) || null != variable.local) return call;
+        Stmt.Function function = this.candidates.get(variable.name.lexeme);
+        // A call with the wrong number of arguments keeps reporting it.
+        if (null == function || function.params.size() != call.arguments.size()) return call;
+        this.sites.merge(function, 1, Integer::sum);
+        return new Expr.Inline(call, function, copy(this.bodies.get(function)));
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = this.inline(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = this.inline(expr.expression);
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = this.inline(expr.left);
+        Expr right = this.inline(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = this.inline(expr.object);
+        Expr value = this.inline(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = this.inline(expr.right);
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
@@ -1,14 +1,37 @@
 package src.craftingInterpreters.mocha;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
+    // Sites specialized to numbers evaluate their operands as primitive doubles and
+    // box only when a value escapes; -Dmocha.unboxed=false turns this off.
+    static final boolean UNBOXED = Boolean.parseBoolean(System.getProperty("mocha.unboxed", "true"));
     final Environment globals = new Environment();
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private static final Cell[] NO_UPVALUES = new Cell[0];
     private Environment environment = this.globals;
+    // Cells captured by the function whose body is running; see Resolver.UPVALUE.
+    private Cell[] upvalues = NO_UPVALUES;
+    // How the last statement completed. Anything but NORMAL unwinds the enclosing
+    // blocks and loops up to whoever handles it; break/continue would join RETURN.
+    private static final int NORMAL = 0;
+    private static final int RETURN = 1;
+    private static final int TAIL_CALL = 2;
+    private int completion = NORMAL;
+    private Object returnValue;
+    private MochaCallable tailCallee;
+    private Object[] tailArguments;
+    // Values of the running loop's invariant expressions, filled in as they are
+    // first evaluated; NIL stands for a cached nil. See LoopOptimizer.
+    private static final Object NIL = new Object();
+    private Object[] invariants;
+    // Arguments of the inlined calls being evaluated, innermost on top; an inlined
+    // body reads its parameters from inlineBase on. See Inliner.
+    private Object[] inlineStack = new Object[16];
+    private int inlineTop;
+    private int inlineBase;
 
     Interpreter() {
         this.globals.define("clock", new MochaCallable() {
@@ -19,7 +42,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
 
             @Override
             public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
+                               Object[] arguments) {
                 return System.currentTimeMillis() / 1000.0;
             }
 
@@ -40,36 +63,74 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         return this.evaluate(expr.expression);
     }
 
+    // Evaluates the function's body in place of the call while the name still
+    // holds the function it was copied from, and makes the call otherwise.
     @Override
-    public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = this.evaluate(expr.right);
+    public Object visitInlineExpr(Expr.Inline expr) {
+        Object callee = this.evaluate(expr.call.callee);
+        if (!(callee instanceof MochaFunction function) || !function.isDeclaredBy(expr.function)) {
+            expr.guardFailed = true;
+            return this.visitCallExpr(expr.call);
+        }
+        int base = this.inlineTop;
+        int previous = this.inlineBase;
+        try {
+            for (Expr argument : expr.call.arguments) {
+                Object value = this.evaluate(argument);
+                if (this.inlineStack.length == this.inlineTop) {
+                    this.inlineStack = Arrays.copyOf(this.inlineStack, 2 * this.inlineTop);
+                }
+                this.inlineStack[this.inlineTop++] = value;
+            }
+            this.inlineBase = base;
+            return this.evaluate(expr.body);
+        } finally {
+            this.inlineBase = previous;
+            Arrays.fill(this.inlineStack, base, this.inlineTop, null);
+            this.inlineTop = base;
+        }
+    }
 
-        switch (expr.operator.type) {
-            case BANG:
-                return !this.isTruthy(right);
-            case MINUS:
-                this.checkNumberOperand(expr.operator, right);
-                return -(double) right;
+    @Override
+    public Object visitInvariantExpr(Expr.Invariant expr) {
+        Object value = this.invariants[expr.index];
+        if (null != value) return NIL == value ? null : value;
+        value = this.evaluate(expr.expression);
+        // A method read off an instance is bound afresh each time, so it is not kept.
+        if (!(value instanceof MochaFunction)) this.invariants[expr.index] = null == value ? NIL : value;
+        return value;
+    }
 
-        }
-        return null;
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+        if (UNBOXED && expr.node instanceof UnaryNode.NumberNegate) return this.evaluateBoxed(expr);
+        Object right = this.evaluate(expr.right);
+        return expr.node.execute(expr, right);
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return this.lookUpVariable(expr.name, expr);
+        if (Resolver.GLOBAL == expr.depth) {
+            int slot = this.globals.globalSlot(expr.name, expr.slot);
+            expr.slot = slot;
+            return this.globals.getGlobal(slot);
+        }
+        return this.lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    public Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = this.locals.get(expr);
-        if (null != distance) {
-            return this.environment.getAt(distance, name.lexeme);
+    public Object lookUpVariable(Token name, int depth, int slot) {
+        if (0 <= depth) {
+            return this.environment.getAt(depth, slot);
+        } else if (Resolver.UPVALUE == depth) {
+            return this.upvalues[slot].value;
+        } else if (Resolver.INLINED == depth) {
+            return this.inlineStack[this.inlineBase + slot];
         } else {
             return this.globals.get(name);
         }
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (null == object) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
@@ -80,58 +141,99 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     }
 
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (UNBOXED) {
+            if (expr.node instanceof BinaryNode.NumberComparison) return this.evaluateCondition(expr);
+            if (expr.node instanceof BinaryNode.NumberArithmetic) return this.evaluateBoxed(expr);
+        }
         Object left = this.evaluate(expr.left);
         Object right = this.evaluate(expr.right);
-        switch (expr.operator.type) {
-            case GREATER:
-                this.checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
-            case GREATER_EQUAL:
-                this.checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
-            case LESS:
-                this.checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
-            case LESS_EQUAL:
-                this.checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
-            case BANG_EQUAL:
-                return !this.isEqual(left, right);
-            case EQUAL_EQUAL:
-                return this.isEqual(left, right);
-            case MINUS:
-                this.checkNumberOperands(expr.operator, left, right);
-
-                return (double) left - (double) right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                } else if (left instanceof String && right instanceof String) {
-                    return left + (String) right;
-                }
-                throw new RuntimeError(expr.operator,
-                        "Operands must be two numbers or two strings.");
-            case SLASH:
-                return (double) left / (double) right;
-            case STAR:
-                return (double) left * (double) right;
+        return expr.node.execute(expr, left, right);
+    }
+
+    private static boolean isNumeric(Expr expr) {
+        if (!UNBOXED) return false;
+        if (expr instanceof Expr.Binary binary) return binary.node instanceof BinaryNode.NumberArithmetic;
+        if (expr instanceof Expr.Unary unary) return unary.node instanceof UnaryNode.NumberNegate;
+        if (expr instanceof Expr.Grouping grouping) return isNumeric(grouping.expression);
+        return expr instanceof Expr.Literal literal && literal.value instanceof Double;
+    }
+
+    private Object evaluateBoxed(Expr expr) {
+        try {
+            return Numbers.box(this.evaluateNumber(expr));
+        } catch (UnexpectedResult unexpected) {
+            return unexpected.result;
         }
-        return null;
     }
 
+    // Evaluates without boxing intermediate results. When an operand is not a number
+    // the site deoptimizes and its generic result is thrown as an UnexpectedResult.
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary binary && binary.node instanceof BinaryNode.NumberArithmetic node) {
+            double left;
+            try {
+                left = this.evaluateNumber(binary.left);
+            } catch (UnexpectedResult unexpected) {
+                return expectNumber(node.deoptimize(binary, unexpected.result, this.evaluate(binary.right)));
+            }
+            double right;
+            try {
+                right = this.evaluateNumber(binary.right);
+            } catch (UnexpectedResult unexpected) {
+                return expectNumber(node.deoptimize(binary, left, unexpected.result));
+            }
+            return node.apply(left, right);
+        }
+        if (expr instanceof Expr.Unary unary && unary.node instanceof UnaryNode.NumberNegate node) {
+            try {
+                return -this.evaluateNumber(unary.right);
+            } catch (UnexpectedResult unexpected) {
+                return expectNumber(node.deoptimize(unary, unexpected.result));
+            }
+        }
+        if (expr instanceof Expr.Variable variable && 0 <= variable.depth) {
+            return this.environment.getNumberAt(variable.depth, variable.slot);
+        }
+        if (expr instanceof Expr.Grouping grouping) return this.evaluateNumber(grouping.expression);
+        return expectNumber(this.evaluate(expr));
+    }
+
+    private static double expectNumber(Object value) {
+        if (value instanceof Double) return (double) value;
+        throw new UnexpectedResult(value);
+    }
 
-    private Boolean isEqual(Object left, Object right) {
+    private boolean evaluateCondition(Expr expr) {
+        if (UNBOXED && expr instanceof Expr.Binary binary && binary.node instanceof BinaryNode.NumberComparison node) {
+            double left;
+            try {
+                left = this.evaluateNumber(binary.left);
+            } catch (UnexpectedResult unexpected) {
+                return isTruthy(node.deoptimize(binary, unexpected.result, this.evaluate(binary.right)));
+            }
+            double right;
+            try {
+                right = this.evaluateNumber(binary.right);
+            } catch (UnexpectedResult unexpected) {
+                return isTruthy(node.deoptimize(binary, left, unexpected.result));
+            }
+            return node.test(left, right);
+        }
+        return isTruthy(this.evaluate(expr));
+    }
+
+    static Boolean isEqual(Object left, Object right) {
         if (null == left && null == right) return true;
         if (null == left) return false;
         return left.equals(right);
     }
 
-    public void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand Must Be A Number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operand Must Be A Numbers.");
     }
@@ -143,6 +245,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
             }
         } catch (RuntimeError error) {
             Mocha.runtimeError(error);
+        } catch (StackOverflowError overflow) {
+            // Recursion outside any call, which visitCallExpr would have caught,
+            // such as a deeply nested expression. No token is left to report it at.
+            Mocha.runtimeError(new RuntimeError(0, "Stack overflow.", "in script"));
         }
     }
 
@@ -150,7 +256,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         stmt.accept(this);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (null == object) return "null";
 
         if (object instanceof Double) {
@@ -169,15 +275,76 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
             this.environment = environment;
             for (Stmt statement : statements) {
                 this.execute(statement);
+                if (NORMAL != this.completion) return;
             }
         } finally {
             this.environment = previous;
         }
     }
 
+    // Runs a function body against its own scope and captured cells.
+    void executeBody(List<Stmt> statements, Environment environment, Cell[] upvalues) {
+        Cell[] previous = this.upvalues;
+        try {
+            this.upvalues = upvalues;
+            this.executeBlock(statements, environment);
+        } finally {
+            this.upvalues = previous;
+        }
+    }
+
+    // Cells for the variables a closure created here captures, in Capture order.
+    private Cell[] capture(Stmt.Function function) {
+        Capture[] captures = function.captures;
+        if (0 == captures.length) return NO_UPVALUES;
+        Cell[] cells = new Cell[captures.length];
+        for (int i = 0; i < cells.length; i++) {
+            Capture capture = captures[i];
+            cells[i] = 0 <= capture.depth
+                    ? this.environment.capture(capture.depth, capture.slot)
+                    : this.upvalues[capture.slot];
+        }
+        return cells;
+    }
+
+    // Called by a function once its body finished; yields the returned value, if any.
+    // A pending tail call is left in place for the caller's trampoline.
+    Object completeReturn() {
+        if (TAIL_CALL == this.completion) return null;
+        Object value = this.returnValue;
+        this.completion = NORMAL;
+        this.returnValue = null;
+        return value;
+    }
+
+    void tailCall(MochaCallable callee, Object[] arguments) {
+        this.tailCallee = callee;
+        this.tailArguments = arguments;
+        this.completion = TAIL_CALL;
+    }
+
+    // The pending tail call's callee, or null; its arguments follow from takeTailArguments.
+    MochaCallable takeTailCallee() {
+        if (TAIL_CALL != this.completion) return null;
+        MochaCallable callee = this.tailCallee;
+        this.completion = NORMAL;
+        this.tailCallee = null;
+        return callee;
+    }
+
+    Object[] takeTailArguments() {
+        Object[] arguments = this.tailArguments;
+        this.tailArguments = null;
+        return arguments;
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        this.executeBlock(stmt.statements, new Environment(this.environment));
+        if (0 == stmt.declarations) {
+            this.executeBlock(stmt.statements, this.environment);
+        } else {
+            this.executeBlock(stmt.statements, new Environment(this.environment, stmt.declarations));
+        }
         return null;
     }
 
@@ -190,78 +357,136 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class");
             }
         }
-        this.environment.define(stmt.name.lexeme, null);
+        // A local class gets its slot first so that its methods can capture it.
+        int slot = this.globals == this.environment ? -1 : this.environment.define(null);
         if (null != stmt.superclass) {
             this.environment = new Environment(this.environment);
-            this.environment.define("super", superclass);
+            this.environment.define(superclass);
         }
         Map<String, MochaFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            MochaFunction function = new MochaFunction(method, this.environment, method.name.lexeme.equals("init"));
+            MochaFunction function = new MochaFunction(method, this.capture(method), true, method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
         MochaClass klass = new MochaClass(stmt.name.lexeme, (MochaClass) superclass, methods);
         if (null != superclass) {
             this.environment = this.environment.enclosing;
         }
-        this.environment.assign(stmt.name, klass);
+        if (0 <= slot) {
+            this.environment.assignAt(0, slot, klass);
+        } else {
+            this.globals.define(stmt.name.lexeme, klass);
+        }
         return null;
     }
 
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
-        this.evaluate(stmt.expression);
+        // A numeric assignment used as a statement never needs its value boxed.
+        if (stmt.expression instanceof Expr.Assign assign && 0 <= assign.depth && isNumeric(assign.value)) {
+            this.assignNumber(assign);
+        } else {
+            this.evaluate(stmt.expression);
+        }
         return null;
     }
 
     @Override
     public Object visitFunctionStmt(Stmt.Function stmt) {
-        MochaFunction function = new MochaFunction(stmt, this.environment, false);
-        this.environment.define(stmt.name.lexeme, function);
+        if (this.globals == this.environment) {
+            this.globals.define(stmt.name.lexeme, new MochaFunction(stmt, this.capture(stmt), false, false));
+            return null;
+        }
+        // Defined before the closure is created, so a recursive function can capture itself.
+        int slot = this.environment.define(null);
+        this.environment.assignAt(0, slot, new MochaFunction(stmt, this.capture(stmt), false, false));
         return null;
     }
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = this.evaluate(stmt.expression);
-        System.out.println(this.stringify(value));
+        System.out.println(stringify(value));
         return null;
     }
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            // The callee runs after this function's body has unwound; see MochaFunction.
+            Expr.Call call = (Expr.Call) stmt.value;
+            Object callee = this.evaluate(call.callee);
+            Object[] arguments = new Object[call.arguments.size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = this.evaluate(call.arguments.get(i));
+            }
+            this.tailCall(checkCall(call, callee, arguments.length), arguments);
+            return null;
+        }
         Object value = null;
         if (null != stmt.value) value = this.evaluate(stmt.value);
 
-        throw new Return(value);
+        this.returnValue = value;
+        this.completion = RETURN;
+        return null;
     }
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
+        if (this.globals != this.environment && null != stmt.initializer && isNumeric(stmt.initializer)) {
+            try {
+                this.environment.defineNumber(this.evaluateNumber(stmt.initializer));
+            } catch (UnexpectedResult unexpected) {
+                this.environment.define(unexpected.result);
+            }
+            return null;
+        }
         Object value = null;
         if (null != stmt.initializer) {
             value = this.evaluate(stmt.initializer);
-            this.environment.define(stmt.name.lexeme, value);
         }
-        this.environment.define(stmt.name.lexeme, value);
+        this.declare(stmt.name, value);
         return null;
     }
 
+    private void declare(Token name, Object value) {
+        if (this.globals == this.environment) {
+            this.globals.define(name.lexeme, value);
+        } else {
+            this.environment.define(value);
+        }
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
+        if (0 <= expr.depth && isNumeric(expr.value)) {
+            this.assignNumber(expr);
+            return this.environment.getAt(expr.depth, expr.slot);
+        }
         Object value = this.evaluate(expr.value);
-        Integer distance = this.locals.get(expr);
-        if (null != distance) {
-            this.environment.assignAt(distance, expr.name, value);
+        if (0 <= expr.depth) {
+            this.environment.assignAt(expr.depth, expr.slot, value);
+        } else if (Resolver.UPVALUE == expr.depth) {
+            this.upvalues[expr.slot].value = value;
         } else {
-            this.globals.assign(expr.name, value);
+            int slot = this.globals.globalSlot(expr.name, expr.slot);
+            expr.slot = slot;
+            this.globals.assignGlobal(slot, value);
         }
         return value;
     }
 
+    private void assignNumber(Expr.Assign expr) {
+        try {
+            this.environment.assignNumberAt(expr.depth, expr.slot, this.evaluateNumber(expr.value));
+        } catch (UnexpectedResult unexpected) {
+            this.environment.assignAt(expr.depth, expr.slot, unexpected.result);
+        }
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt) {
-        if (this.isTruthy(this.evaluate(stmt.condition))) {
+        if (this.evaluateCondition(stmt.condition)) {
             this.execute(stmt.thenBranch);
         } else if (null != stmt.elseBranch) {
             this.execute(stmt.elseBranch);
@@ -273,9 +498,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = this.evaluate(expr.left);
         if (TokenType.OR == expr.operator.type) {
-            if (this.isTruthy(left)) return left;
+            if (isTruthy(left)) return left;
         } else {
-            if (!this.isTruthy(left)) return left;
+            if (!isTruthy(left)) return left;
         }
         return this.evaluate(expr.right);
     }
@@ -290,66 +515,154 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
         }
 
         Object value = this.evaluate(expr.value);
-        ((MochaInstance) object).set(expr.name, value);
+        expr.cache.set((MochaInstance) object, expr.name, value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = this.locals.get(expr);
-        MochaClass superclass = (MochaClass) this.environment.getAt(distance, "super");
-        MochaInstance object = (MochaInstance) this.environment.getAt(distance - 1, "this");
+        MochaInstance object = (MochaInstance) this.lookUpVariable(expr.keyword, expr.thisDepth, expr.thisSlot);
+        return this.superMethod(expr).bind(object);
+    }
+
+    private MochaFunction superMethod(Expr.Super expr) {
+        MochaClass superclass = (MochaClass) this.lookUpVariable(expr.keyword, expr.depth, expr.slot);
         MochaFunction method = superclass.findMethod(expr.method.lexeme);
         if (null == method) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
         }
-        return method.bind(object);
-
+        return method;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return this.lookUpVariable(expr.keyword, expr);
+        return this.lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
-        while (this.isTruthy(this.evaluate(stmt.condition))) {
-            this.execute(stmt.body);
+        if (0 == stmt.invariants) {
+            this.loop(stmt);
+            return null;
+        }
+        Object[] previous = this.invariants;
+        try {
+            this.invariants = new Object[stmt.invariants];
+            this.loop(stmt);
+        } finally {
+            this.invariants = previous;
         }
         return null;
     }
 
+    private void loop(Stmt.While stmt) {
+        if (null != stmt.counted && this.countedLoop(stmt.counted)) return;
+        while (this.evaluateCondition(stmt.condition)) {
+            this.execute(stmt.body);
+            if (NORMAL != this.completion) break;
+        }
+    }
+
+    // Runs the loop on a primitive counter, writing it to its slot once per iteration.
+    // False, having run nothing, when the counter or the limit is not a number.
+    private boolean countedLoop(CountedLoop loop) {
+        Object start = this.environment.getAt(loop.counter.depth, loop.counter.slot);
+        if (!(start instanceof Double)) return false;
+        Object end = this.evaluate(loop.limit);
+        if (!(end instanceof Double)) return false;
+        double limit = (double) end;
+        double i = (double) start;
+        for (; loop.test(i, limit); i += loop.step) {
+            this.environment.assignNumberAt(loop.counter.depth, loop.counter.slot, i);
+            if (0 == loop.declarations) {
+                this.executeBlock(loop.body, this.environment);
+            } else {
+                this.executeBlock(loop.body, new Environment(this.environment, loop.declarations));
+            }
+            if (NORMAL != this.completion) return true;
+        }
+        this.environment.assignNumberAt(loop.counter.depth, loop.counter.slot, i);
+        return true;
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = this.evaluate(expr.callee);
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(this.evaluate(argument));
+        try {
+            return this.call(expr);
+        } catch (StackOverflowError overflow) {
+            // Surfaces as a Mocha error at the innermost call that can still build one.
+            // --vm keeps its frames on the heap and recurses much deeper.
+            throw new RuntimeError(expr.paren, "Stack overflow.");
         }
+    }
+
+    private Object call(Expr.Call expr) {
+        Object callee;
+        MochaInstance receiver = null;
+        // obj.method(...) and super.method(...) pass the receiver straight to the
+        // method instead of allocating a bound copy of it first.
+        if (expr.callee instanceof Expr.Get get) {
+            Object object = this.evaluate(get.object);
+            if (!(object instanceof MochaInstance instance)) {
+                throw new RuntimeError(get.name, "Only instances have property");
+            }
+            receiver = instance;
+            callee = get.cache.getUnbound(instance, get.name);
+        } else if (expr.callee instanceof Expr.Super superExpr) {
+            receiver = (MochaInstance) this.lookUpVariable(superExpr.keyword, superExpr.thisDepth, superExpr.thisSlot);
+            callee = this.superMethod(superExpr);
+        } else {
+            callee = this.evaluate(expr.callee);
+        }
+        List<Expr> arguments = expr.arguments;
+        int count = arguments.size();
+        if (3 < count) {
+            Object[] values = new Object[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = this.evaluate(arguments.get(i));
+            }
+            MochaCallable function = checkCall(expr, callee, count);
+            if (function instanceof MochaFunction method && method.isUnboundMethod()) {
+                return method.invoke(this, receiver, values);
+            }
+            return function.call(this, values);
+        }
+        // Up to three arguments stay in locals and go through the fixed-arity entries.
+        Object a = 0 < count ? this.evaluate(arguments.get(0)) : null;
+        Object b = 1 < count ? this.evaluate(arguments.get(1)) : null;
+        Object c = 2 < count ? this.evaluate(arguments.get(2)) : null;
+        MochaCallable function = checkCall(expr, callee, count);
+        if (function instanceof MochaFunction method && method.isUnboundMethod()) {
+            return method.invoke(this, receiver, count, a, b, c);
+        }
+        return switch (count) {
+            case 0 -> function.call0(this);
+            case 1 -> function.call1(this, a);
+            case 2 -> function.call2(this, a, b);
+            default -> function.call3(this, a, b, c);
+        };
+    }
+
+    private static MochaCallable checkCall(Expr.Call expr, Object callee, int count) {
         if (!(callee instanceof MochaCallable function)) {
             throw new RuntimeError(expr.paren,
                     "Can only call functions and classes.");
         }
-        if (arguments.size() != function.arity()) {
+        if (count != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    count + ".");
         }
-        return function.call(this, arguments);
-
+        return function;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = this.evaluate(expr.object);
         if (object instanceof MochaInstance) {
-            return ((MochaInstance) object).get(expr.name);
+            return expr.cache.get((MochaInstance) object, expr.name);
         }
         throw new RuntimeError(expr.name, "Only instances have property");
     }
 
-    void resolve(Expr expr, int depth) {
-        this.locals.put(expr, depth);
-    }
 }
\ No newline at end of file
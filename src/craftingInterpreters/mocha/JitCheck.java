@@ -0,0 +1,62 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.List;
+
+// Runs each case on the tree-walker as it is, and again with every top-level
+// function and method compiled by JitCompiler before the first call, and
+// reports any whose output or runtime error differs. A class the JVM rejects
+// is thrown straight out of here rather than falling back to the tree-walker.
+// Exits 1 if a case differed.
+public class JitCheck {
+    private static final String[][] CASES = {
+            {"arithmetic, comparison and truthiness",
+                    "fun f(a, b) { if (a > b and !(a == b)) return a * b - a / b; {} return nil or \"none\"; }\n"
+                            + "print f(6, 3);\nprint f(1, 2);\nprint f(2, 2) == \"none\";\n"},
+            {"recursion and globals",
+                    "var calls = 0;\nfun fib(n) { calls = calls + 1; if (n < 2) return n; {} return fib(n - 1) + fib(n - 2); }\n"
+                            + "print fib(15);\nprint calls;\n"},
+            {"loops, locals and strings",
+                    "fun join(n) { var s = \"\"; for (var i = 0; i < n; i = i + 1) { var c = \"x\"; s = s + c; } return s; }\n"
+                            + "print join(5);\nfun none() { var i = 0; while (i < 3) i = i + 1; }\nprint none();\n"},
+            {"methods, fields and this",
+                    "class Counter { init() { this.n = 0; } add(k) { this.n = this.n + k; return this; } get() { return this.n; } }\n"
+                            + "var c = Counter();\nc.add(2).add(3);\nprint c.get();\nprint c.add;\n"},
+            {"runtime error inside a compiled body",
+                    "fun bad(x) {\n  return -x;\n}\nprint bad(1);\nprint bad(\"s\");\nprint \"unreached\";\n"},
+            {"undefined property and call errors",
+                    "class A { m() { return this.missing; } }\nfun call(f) { return f(); }\n"
+                            + "print call(A().m);\n"},
+    };
+
+    public static void main(String[] args) {
+        Checks.compare(CASES, "interpreted", source -> run(source, false), "compiled", source -> run(source, true));
+    }
+
+    private static String run(String source, boolean compiled) {
+        Compilation compilation = Mocha.compile(null, source);
+        if (compilation.hadError) throw new IllegalStateException("case did not compile");
+        if (compiled && 0 == precompile(compilation.statements)) {
+            throw new IllegalStateException("no function in the case compiled");
+        }
+        return Checks.capture(() -> new Interpreter().interpret(compilation.statements));
+    }
+
+    // Sets the compiled body of each function and method it can, as MochaFunction
+    // would once they were hot. Initializers always stay interpreted.
+    private static int precompile(List<Stmt> statements) {
+        int count = 0;
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function function) {
+                function.compiled = JitCompiler.generate(function, false);
+                if (null != function.compiled) count++;
+            } else if (statement instanceof Stmt.Class klass) {
+                for (Stmt.Function method : klass.methods) {
+                    if (method.name.lexeme.equals("init")) continue;
+                    method.compiled = JitCompiler.generate(method, true);
+                    if (null != method.compiled) count++;
+                }
+            }
+        }
+        return count;
+    }
+}
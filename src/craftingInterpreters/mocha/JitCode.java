@@ -0,0 +1,7 @@
+package src.craftingInterpreters.mocha;
+
+// Entry point implemented by the hidden classes JitCompiler generates.
+// The receiver is null unless the compiled function is a method.
+interface JitCode {
+    Object invoke(Interpreter interpreter, Cell[] upvalues, Object receiver, Object[] arguments);
+}
@@ -0,0 +1,688 @@
+package src.craftingInterpreters.mocha;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles a hot Stmt.Function into a JVM class, loaded as a hidden class so
+// HotSpot can optimise Mocha code like any other Java method. The function's
+// own locals become JVM locals; closure variables, globals and every operation
+// with Mocha semantics go through JitRuntime. Functions that declare nested
+// functions or classes are left to the tree-walker.
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // Calls through MochaFunction before a body is compiled; 0 or less turns the tier off.
+    static final int THRESHOLD = Integer.getInteger("mocha.jitThreshold", 1000);
+    // -Dmocha.jitDebug=true reports on stderr each hot function left interpreted, and why.
+    static final boolean DEBUG = Boolean.getBoolean("mocha.jitDebug");
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final String PACKAGE = "src/craftingInterpreters/mocha/";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "L" + PACKAGE + "Token;";
+    private static final String INTERPRETER = "L" + PACKAGE + "Interpreter;";
+    private static final String UPVALUES = "[L" + PACKAGE + "Cell;";
+    private static final String CACHE = "L" + PACKAGE + "PropertyCache;";
+    private static final String VARIABLE = "L" + PACKAGE + "Expr$Variable;";
+    private static final String ASSIGN = "L" + PACKAGE + "Expr$Assign;";
+    private static final String RUNTIME = PACKAGE + "JitRuntime";
+    private static final String BINARY = "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT;
+
+    // Fixed JVM locals of the generated invoke method.
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int UPVALUES_LOCAL = 2;
+    private static final int RECEIVER_LOCAL = 3;
+    private static final int ARGUMENTS_LOCAL = 4;
+    private static final int CONSTANTS_LOCAL = 5;
+    private static final int FIRST_MOCHA_LOCAL = 6;
+
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int ALOAD = 0x19;
+    private static final int ASTORE = 0x3a;
+    private static final int AALOAD = 0x32;
+    private static final int AASTORE = 0x53;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int GOTO = 0xa7;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int ANEWARRAY = 0xbd;
+    private static final int CHECKCAST = 0xc0;
+
+    private final Stmt.Function declaration;
+    private final boolean isMethod;
+    private final ConstantPool pool = new ConstantPool();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    // JVM local for each slot of the function's scopes that are currently open.
+    private final List<List<Integer>> scopes = new ArrayList<>();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    // Branch offsets, applied once the whole body has been emitted.
+    private final List<int[]> jumps = new ArrayList<>();
+    private byte[] patched;
+    private int nextLocal = FIRST_MOCHA_LOCAL;
+    private int stack;
+    private int maxStack;
+
+    private JitCompiler(Stmt.Function declaration, boolean isMethod) {
+        this.declaration = declaration;
+        this.isMethod = isMethod;
+    }
+
+    static JitCode compile(Stmt.Function declaration, boolean isMethod) {
+        try {
+            return generate(declaration, isMethod);
+        } catch (VerifyError | ClassFormatError rejected) {
+            // Code the JVM refused to load is a bug in this generator, but the
+            // function still runs correctly interpreted. JitCheck lets these fail.
+            if (DEBUG) {
+                System.err.println("[jit] " + declaration.name.lexeme + "() rejected by the JVM: " + rejected);
+            }
+            return null;
+        }
+    }
+
+    // The compiled body, or null for a function using something this tier leaves
+    // to the tree-walker. Throws if the JVM rejects the generated class.
+    static JitCode generate(Stmt.Function declaration, boolean isMethod) {
+        try {
+            return new JitCompiler(declaration, isMethod).generate();
+        } catch (Unsupported unsupported) {
+            if (DEBUG) System.err.println("[jit] " + declaration.name.lexeme + "() unsupported, stays interpreted");
+            return null;
+        }
+    }
+
+    private JitCode generate() {
+        List<Integer> parameters = new ArrayList<>();
+        this.scopes.add(parameters);
+        // A method's "this" is slot 0 of its scope and lives in the receiver argument.
+        if (this.isMethod) parameters.add(RECEIVER_LOCAL);
+        for (int i = 0; i < this.declaration.params.size(); i++) {
+            parameters.add(this.nextLocal++);
+        }
+        if (255 < this.nextLocal) throw new Unsupported();
+        for (Stmt statement : this.declaration.body) {
+            this.compile(statement);
+        }
+        this.op(ACONST_NULL, 1);
+        this.op(ARETURN, -1);
+        this.finishCode();
+
+        byte[] body = this.prologue();
+        try {
+            byte[] bytes = this.classFile(body);
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass(bytes, true);
+            return (JitCode) hidden.lookupClass().getDeclaredConstructor(Object[].class)
+                    .newInstance((Object) this.constants.toArray());
+        } catch (IOException | ReflectiveOperationException impossible) {
+            // The class file is written to memory, into this class's own package,
+            // with a constructor that only stores its argument.
+            throw new IllegalStateException(impossible);
+        }
+    }
+
+    // Loads the constants array and the parameters, and nulls every other
+    // local so the verifier never sees an unassigned one at a merge point.
+    private byte[] prologue() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x2a);
+        int field = this.pool.field(PACKAGE + "JitFunction", "k", "[" + OBJECT);
+        out.write(GETFIELD);
+        out.write(field >> 8);
+        out.write(field);
+        out.write(ASTORE);
+        out.write(CONSTANTS_LOCAL);
+        int params = this.declaration.params.size();
+        for (int i = 0; i < params; i++) {
+            out.write(ALOAD);
+            out.write(ARGUMENTS_LOCAL);
+            out.write(SIPUSH);
+            out.write(i >> 8);
+            out.write(i);
+            out.write(AALOAD);
+            out.write(ASTORE);
+            out.write(FIRST_MOCHA_LOCAL + i);
+        }
+        for (int local = FIRST_MOCHA_LOCAL + params; local < this.nextLocal; local++) {
+            out.write(ACONST_NULL);
+            out.write(ASTORE);
+            out.write(local);
+        }
+        this.maxStack = Math.max(this.maxStack, 2);
+        byte[] body = this.patched;
+        out.write(body, 0, body.length);
+        return out.toByteArray();
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // Mirrors the Resolver: only blocks with declarations open a scope.
+        if (0 != stmt.declarations) this.scopes.add(new ArrayList<>());
+        for (Stmt statement : stmt.statements) {
+            this.compile(statement);
+        }
+        if (0 != stmt.declarations) this.scopes.remove(this.scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        this.compile(stmt.expression);
+        this.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        this.condition(stmt.condition);
+        int elseJump = this.jump(IFEQ, -1);
+        this.compile(stmt.thenBranch);
+        int endJump = this.jump(GOTO, 0);
+        this.patch(elseJump);
+        if (null != stmt.elseBranch) this.compile(stmt.elseBranch);
+        this.patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        this.compile(stmt.expression);
+        this.invokeRuntime("print", "(" + OBJECT + ")V", -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            // Hands the call to the caller's trampoline, as the interpreter does.
+            Expr.Call call = (Expr.Call) stmt.value;
+            this.compile(call.callee);
+            this.arguments(call);
+            this.invokeRuntime("tailCall", "(" + OBJECT + "[" + OBJECT + INTERPRETER + TOKEN + ")" + OBJECT, -3);
+        } else if (null == stmt.value) {
+            this.op(ACONST_NULL, 1);
+        } else {
+            this.compile(stmt.value);
+        }
+        this.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (null == stmt.initializer) {
+            this.op(ACONST_NULL, 1);
+        } else {
+            this.compile(stmt.initializer);
+        }
+        int local = this.nextLocal++;
+        if (255 < local) throw new Unsupported();
+        this.scopes.get(this.scopes.size() - 1).add(local);
+        this.local(ASTORE, local, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = this.code.size();
+        this.condition(stmt.condition);
+        int exitJump = this.jump(IFEQ, -1);
+        this.compile(stmt.body);
+        int back = this.jump(GOTO, 0);
+        this.patchTo(back, loopStart);
+        this.patch(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        this.compile(expr.value);
+        if (Resolver.UPVALUE == expr.depth) {
+            this.local(ALOAD, UPVALUES_LOCAL, 1);
+            this.integer(expr.slot);
+            this.invokeRuntime("setUpvalue", "(" + OBJECT + UPVALUES + "I)" + OBJECT, -2);
+        } else if (Resolver.GLOBAL == expr.depth) {
+            // The site itself is the constant, so the runtime can cache its slot on it.
+            this.local(ALOAD, INTERPRETER_LOCAL, 1);
+            this.constant(expr);
+            this.invokeRuntime("setGlobal", "(" + OBJECT + INTERPRETER + ASSIGN + ")" + OBJECT, -2);
+        } else {
+            this.op(DUP, 1);
+            this.local(ASTORE, this.localFor(expr.depth, expr.slot), -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        this.compile(expr.left);
+        this.compile(expr.right);
+        this.constant(expr.operator);
+        String helper = switch (expr.operator.type) {
+            case GREATER -> "greater";
+            case GREATER_EQUAL -> "greaterEqual";
+            case LESS -> "less";
+            case LESS_EQUAL -> "lessEqual";
+            case BANG_EQUAL -> "notEqual";
+            case EQUAL_EQUAL -> "equal";
+            case MINUS -> "subtract";
+            case PLUS -> "add";
+            case SLASH -> "divide";
+            case STAR -> "multiply";
+            default -> throw new Unsupported();
+        };
+        this.invokeRuntime(helper, BINARY, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        boolean method = expr.callee instanceof Expr.Get;
+        if (method) {
+            // Leaves the receiver under the unbound method, as in Interpreter.visitCallExpr.
+            Expr.Get get = (Expr.Get) expr.callee;
+            this.compile(get.object);
+            this.op(DUP, 1);
+            this.constant(get.cache);
+            this.constant(get.name);
+            this.invokeRuntime("getUnbound", "(" + OBJECT + CACHE + TOKEN + ")" + OBJECT, -2);
+        } else {
+            this.compile(expr.callee);
+        }
+        this.arguments(expr);
+        if (method) {
+            this.invokeRuntime("invoke", "(" + OBJECT + OBJECT + "[" + OBJECT + INTERPRETER + TOKEN + ")" + OBJECT, -4);
+        } else {
+            this.invokeRuntime("call", "(" + OBJECT + "[" + OBJECT + INTERPRETER + TOKEN + ")" + OBJECT, -3);
+        }
+        return null;
+    }
+
+    // Pushes the argument array, the interpreter and the call's paren token.
+    private void arguments(Expr.Call expr) {
+        this.integer(expr.arguments.size());
+        this.op(ANEWARRAY, 0);
+        this.u2(this.pool.classRef("java/lang/Object"));
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            this.op(DUP, 1);
+            this.integer(i);
+            this.compile(expr.arguments.get(i));
+            this.op(AASTORE, -3);
+        }
+        this.local(ALOAD, INTERPRETER_LOCAL, 1);
+        this.constant(expr.paren);
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        this.compile(expr.object);
+        this.constant(expr.cache);
+        this.constant(expr.name);
+        this.invokeRuntime("get", "(" + OBJECT + CACHE + TOKEN + ")" + OBJECT, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        this.compile(expr.expression);
+        return null;
+    }
+
+    // The JIT gets its own call sites inlined by the JVM, so it compiles the plain call.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        this.compile(expr.call);
+        return null;
+    }
+
+    // Compiled loops keep their values in JVM locals, so there is nothing to cache.
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        this.compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (null == expr.value) {
+            this.op(ACONST_NULL, 1);
+        } else {
+            this.constant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        this.compile(expr.left);
+        this.op(DUP, 1);
+        this.invokeRuntime("isTruthy", "(" + OBJECT + ")Z", 0);
+        int end = this.jump(TokenType.OR == expr.operator.type ? IFNE : IFEQ, -1);
+        this.op(POP, -1);
+        this.compile(expr.right);
+        this.patch(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        this.compile(expr.object);
+        this.constant(expr.name);
+        this.invokeRuntime("checkFields", "(" + OBJECT + TOKEN + ")" + OBJECT, -1);
+        this.compile(expr.value);
+        this.constant(expr.cache);
+        this.constant(expr.name);
+        this.invokeRuntime("set", "(" + OBJECT + OBJECT + CACHE + TOKEN + ")" + OBJECT, -3);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        this.variable(expr.depth, expr.slot);
+        this.variable(expr.thisDepth, expr.thisSlot);
+        this.constant(expr.method);
+        this.invokeRuntime("superMethod", "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        this.variable(expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        this.compile(expr.right);
+        if (TokenType.BANG == expr.operator.type) {
+            this.invokeRuntime("not", "(" + OBJECT + ")" + OBJECT, 0);
+        } else {
+            this.constant(expr.operator);
+            this.invokeRuntime("negate", "(" + OBJECT + TOKEN + ")" + OBJECT, -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (Resolver.GLOBAL == expr.depth) {
+            this.local(ALOAD, INTERPRETER_LOCAL, 1);
+            this.constant(expr);
+            this.invokeRuntime("getGlobal", "(" + INTERPRETER + VARIABLE + ")" + OBJECT, -1);
+        } else {
+            this.variable(expr.depth, expr.slot);
+        }
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void condition(Expr expr) {
+        this.compile(expr);
+        this.invokeRuntime("isTruthy", "(" + OBJECT + ")Z", 0);
+    }
+
+    // A local or captured variable; globals are looked up through their site.
+    private void variable(int depth, int slot) {
+        if (Resolver.UPVALUE == depth) {
+            this.local(ALOAD, UPVALUES_LOCAL, 1);
+            this.integer(slot);
+            this.invokeRuntime("getUpvalue", "(" + UPVALUES + "I)" + OBJECT, -1);
+        } else {
+            this.local(ALOAD, this.localFor(depth, slot), 1);
+        }
+    }
+
+    private int localFor(int depth, int slot) {
+        List<Integer> scope = this.scopes.get(this.scopes.size() - 1 - depth);
+        if (slot >= scope.size()) throw new Unsupported();
+        return scope.get(slot);
+    }
+
+    private void constant(Object value) {
+        Integer index = this.constantIndex.get(value);
+        if (null == index) {
+            index = this.constants.size();
+            this.constants.add(value);
+            this.constantIndex.put(value, index);
+        }
+        this.local(ALOAD, CONSTANTS_LOCAL, 1);
+        this.integer(index);
+        this.op(AALOAD, -1);
+        if (value instanceof Token || value instanceof PropertyCache || value instanceof Expr) {
+            this.op(CHECKCAST, 0);
+            this.u2(this.pool.classRef(value.getClass().getName().replace('.', '/')));
+        }
+    }
+
+    private void integer(int value) {
+        if (0 <= value && 5 >= value) {
+            this.op(ICONST_0 + value, 1);
+        } else if (-128 <= value && 127 >= value) {
+            this.op(BIPUSH, 1);
+            this.code.write(value);
+        } else {
+            this.op(SIPUSH, 1);
+            this.u2(value);
+        }
+    }
+
+    private void local(int opcode, int index, int delta) {
+        this.op(opcode, delta);
+        this.code.write(index);
+    }
+
+    private void invokeRuntime(String name, String descriptor, int delta) {
+        this.op(INVOKESTATIC, delta);
+        this.u2(this.pool.method(RUNTIME, name, descriptor, false));
+    }
+
+    private void op(int opcode, int delta) {
+        this.code.write(opcode);
+        this.stack += delta;
+        this.maxStack = Math.max(this.maxStack, this.stack);
+    }
+
+    private void u2(int value) {
+        this.code.write(value >> 8);
+        this.code.write(value);
+    }
+
+    private int jump(int opcode, int delta) {
+        int at = this.code.size();
+        this.op(opcode, delta);
+        this.u2(0);
+        return at;
+    }
+
+    private void patch(int at) {
+        this.patchTo(at, this.code.size());
+    }
+
+    private void patchTo(int at, int target) {
+        int offset = target - at;
+        if (Short.MIN_VALUE > offset || Short.MAX_VALUE < offset) throw new Unsupported();
+        this.jumps.add(new int[]{at, offset});
+    }
+
+    private byte[] classFile(byte[] body) throws IOException {
+        String name = PACKAGE + "JitFunction";
+        int thisClass = this.pool.classRef(name);
+        int superClass = this.pool.classRef("java/lang/Object");
+        int jitCode = this.pool.classRef(PACKAGE + "JitCode");
+        int field = this.pool.field(name, "k", "[" + OBJECT);
+        int objectInit = this.pool.method("java/lang/Object", "<init>", "()V", false);
+        int fieldName = this.pool.utf8("k");
+        int fieldType = this.pool.utf8("[" + OBJECT);
+        int initName = this.pool.utf8("<init>");
+        int initType = this.pool.utf8("([" + OBJECT + ")V");
+        int invokeName = this.pool.utf8("invoke");
+        int invokeType = this.pool.utf8("(" + INTERPRETER + UPVALUES + OBJECT + "[" + OBJECT + ")" + OBJECT);
+        int codeName = this.pool.utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);
+        // Version 49 class files are verified by type inference, so no StackMapTable is needed.
+        out.writeShort(49);
+        this.pool.write(out);
+        out.writeShort(0x0030);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(jitCode);
+
+        out.writeShort(1);
+        out.writeShort(0x0012);
+        out.writeShort(fieldName);
+        out.writeShort(fieldType);
+        out.writeShort(0);
+
+        out.writeShort(2);
+        byte[] init = {
+                0x2a, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit,
+                0x2a, 0x2b, (byte) PUTFIELD, (byte) (field >> 8), (byte) field,
+                (byte) RETURN
+        };
+        this.method(out, initName, initType, codeName, 2, 2, init);
+        this.method(out, invokeName, invokeType, codeName, this.maxStack, this.nextLocal, body);
+        out.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    private void method(DataOutputStream out, int name, int type, int codeName,
+                        int maxStack, int maxLocals, byte[] body) throws IOException {
+        out.writeShort(0x0001);
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private void finishCode() {
+        byte[] body = this.code.toByteArray();
+        for (int[] jump : this.jumps) {
+            body[jump[0] + 1] = (byte) (jump[1] >> 8);
+            body[jump[0] + 2] = (byte) jump[1];
+        }
+        if (0xffff < body.length) throw new Unsupported();
+        this.patched = body;
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(this.bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String text) {
+            Integer index = this.entries.get("U" + text);
+            if (null != index) return index;
+            try {
+                this.out.writeByte(1);
+                this.out.writeUTF(text);
+            } catch (IOException impossible) {
+                throw new IllegalStateException(impossible);
+            }
+            return this.add("U" + text);
+        }
+
+        int classRef(String name) {
+            Integer index = this.entries.get("C" + name);
+            if (null != index) return index;
+            int utf8 = this.utf8(name);
+            this.writeEntry(7, utf8);
+            return this.add("C" + name);
+        }
+
+        int field(String owner, String name, String type) {
+            return this.member(9, owner, name, type);
+        }
+
+        int method(String owner, String name, String type, boolean isInterface) {
+            return this.member(isInterface ? 11 : 10, owner, name, type);
+        }
+
+        private int member(int tag, String owner, String name, String type) {
+            String key = "M" + tag + owner + "." + name + type;
+            Integer index = this.entries.get(key);
+            if (null != index) return index;
+            int ownerIndex = this.classRef(owner);
+            int nameAndType = this.nameAndType(name, type);
+            this.writeEntry(tag, ownerIndex, nameAndType);
+            return this.add(key);
+        }
+
+        private int nameAndType(String name, String type) {
+            String key = "N" + name + ":" + type;
+            Integer index = this.entries.get(key);
+            if (null != index) return index;
+            int nameIndex = this.utf8(name);
+            int typeIndex = this.utf8(type);
+            this.writeEntry(12, nameIndex, typeIndex);
+            return this.add(key);
+        }
+
+        private void writeEntry(int tag, int... indexes) {
+            this.bytes.write(tag);
+            for (int index : indexes) {
+                this.bytes.write(index >> 8);
+                this.bytes.write(index);
+            }
+        }
+
+        private int add(String key) {
+            this.entries.put(key, this.count);
+            return this.count++;
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(this.count);
+            this.bytes.writeTo(target);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package src.craftingInterpreters.mocha;
+
+
+// Operations called from JIT-compiled code. Each mirrors the matching
+// Interpreter visitor so compiled and interpreted functions behave the same.
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    static boolean isTruthy(Object object) {
+        return Interpreter.isTruthy(object);
+    }
+
+    static Object not(Object right) {
+        return !Interpreter.isTruthy(right);
+    }
+
+    static Object negate(Object right, Token operator) {
+        Interpreter.checkNumberOperand(operator, right);
+        return Numbers.box(-(double) right);
+    }
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return Numbers.box((double) left + (double) right);
+        } else if (left instanceof String && right instanceof String) {
+            return left + (String) right;
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return Numbers.box((double) left - (double) right);
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        return Numbers.box((double) left * (double) right);
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        return Numbers.box((double) left / (double) right);
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    static Object equal(Object left, Object right, Token operator) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right, Token operator) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object getGlobal(Interpreter interpreter, Expr.Variable site) {
+        Environment globals = interpreter.globals;
+        int slot = globals.globalSlot(site.name, site.slot);
+        site.slot = slot;
+        return globals.getGlobal(slot);
+    }
+
+    static Object setGlobal(Object value, Interpreter interpreter, Expr.Assign site) {
+        Environment globals = interpreter.globals;
+        int slot = globals.globalSlot(site.name, site.slot);
+        site.slot = slot;
+        globals.assignGlobal(slot, value);
+        return value;
+    }
+
+    static Object getUpvalue(Cell[] upvalues, int index) {
+        return upvalues[index].value;
+    }
+
+    static Object setUpvalue(Object value, Cell[] upvalues, int index) {
+        upvalues[index].value = value;
+        return value;
+    }
+
+    static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        if (!(callee instanceof MochaCallable function)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    arguments.length + ".");
+        }
+        interpreter.tailCall(function, arguments);
+        return null;
+    }
+
+    static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        if (!(callee instanceof MochaCallable function)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    arguments.length + ".");
+        }
+        return function.call(interpreter, arguments);
+    }
+
+    static Object getUnbound(Object object, PropertyCache cache, Token name) {
+        if (object instanceof MochaInstance) {
+            return cache.getUnbound((MochaInstance) object, name);
+        }
+        throw new RuntimeError(name, "Only instances have property");
+    }
+
+    static Object invoke(Object receiver, Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        if (callee instanceof MochaFunction method && method.isUnboundMethod()) {
+            if (arguments.length != method.arity()) {
+                throw new RuntimeError(paren, "Expected " +
+                        method.arity() + " arguments but got " +
+                        arguments.length + ".");
+            }
+            return method.invoke(interpreter, (MochaInstance) receiver, arguments);
+        }
+        return call(callee, arguments, interpreter, paren);
+    }
+
+    static Object get(Object object, PropertyCache cache, Token name) {
+        if (object instanceof MochaInstance) {
+            return cache.get((MochaInstance) object, name);
+        }
+        throw new RuntimeError(name, "Only instances have property");
+    }
+
+    static Object checkFields(Object object, Token name) {
+        if (!(object instanceof MochaInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        return object;
+    }
+
+    static Object set(Object object, Object value, PropertyCache cache, Token name) {
+        cache.set((MochaInstance) object, name, value);
+        return value;
+    }
+
+    static Object superMethod(Object klass, Object object, Token method) {
+        MochaClass superclass = (MochaClass) klass;
+        MochaFunction function = superclass.findMethod(method.lexeme);
+        if (null == function) {
+            throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+        }
+        return function.bind((MochaInstance) object);
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+}
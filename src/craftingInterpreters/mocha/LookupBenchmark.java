@@ -0,0 +1,108 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.List;
+
+// Nanoseconds per variable read or write and per property access, on the
+// tree-walker and on --vm. Each case repeats one operation UNROLL times in the
+// body of a counting loop, with locals and the instance declared a given number
+// of scopes out from that body. The empty loop is timed again next to every
+// case and subtracted; a case within noise of it prints as "noise".
+// Run with -Dmocha.loops=false: LoopOptimizer would cache the reads being
+// measured, and its flag is fixed once the class loads.
+public class LookupBenchmark {
+    private static final int ROUNDS = 10;
+    private static final int UNROLL = 16;
+    private static final int[] DEPTHS = {1, 2, 4, 8};
+    // Below this the loop is too short for its timing to mean anything.
+    private static final int MIN_ITERATIONS = 10000;
+
+    public static void main(String[] args) {
+        if (LoopOptimizer.ENABLED) {
+            System.err.println("Run with -Dmocha.loops=false");
+            System.exit(64);
+        }
+        int iterations = Benchmarks.count(args, "lookup_benchmark [iterations]", 200000, MIN_ITERATIONS);
+        // The first pass only warms up the JVM, so that every case and its empty
+        // loop are timed after the same compilation.
+        run(iterations, false);
+        System.out.printf("%-24s %12s %12s%n", "", "tree ns/op", "vm ns/op");
+        run(iterations, true);
+    }
+
+    private static void run(int iterations, boolean print) {
+        String loop = "for (var i = 0; i < " + iterations + "; i = i + 1) { " + "%1$s ".repeat(UNROLL) + "}\n";
+        Suite suite = new Suite(String.format(loop, ""), iterations, print);
+        suite.report("global read", "var g = 1;\n" + String.format(loop, "g;"));
+        suite.report("global write", "var g = 1;\n" + String.format(loop, "g = 1;"));
+        for (int depth : DEPTHS) {
+            suite.report("local read, depth " + depth, local(depth, "var x = 1;", String.format(loop, "x;")));
+        }
+        for (int depth : DEPTHS) {
+            suite.report("local write, depth " + depth, local(depth, "var x = 1;", String.format(loop, "x = 1;")));
+        }
+        String closure = "fun outer() { var c = 1; fun inner() { " + loop + " } inner(); }\nouter();\n";
+        suite.report("captured read", String.format(closure, "c;"));
+        suite.report("captured write", String.format(closure, "c = 1;"));
+        String klass = "class P { m() {} }\n";
+        String instance = "var p = P(); p.x = 1;";
+        for (int depth : DEPTHS) {
+            suite.report("field get, depth " + depth, klass + local(depth, instance, String.format(loop, "p.x;")));
+        }
+        suite.report("field set", klass + local(1, instance, String.format(loop, "p.x = 1;")));
+        suite.report("method get", klass + local(1, instance, String.format(loop, "p.m;")));
+    }
+
+    private record Suite(String empty, int iterations, boolean print) {
+        void report(String name, String source) {
+            long[] base = measure(this.empty);
+            long[] best = measure(source);
+            if (!this.print) return;
+            System.out.printf("%-24s %12s %12s%n", name + ":",
+                    this.perOp(best[0] - base[0]), this.perOp(best[1] - base[1]));
+        }
+
+        private String perOp(long nanos) {
+            if (0 >= nanos) return "noise";
+            return String.format("%.2f", (double) nanos / this.iterations / UNROLL);
+        }
+    }
+
+    // Declares before a loop so that its body sees the declarations depth scopes
+    // out; the loop's own scope for its counter is the innermost of those.
+    private static String local(int depth, String declarations, String loop) {
+        StringBuilder source = new StringBuilder("{ ").append(declarations).append('\n');
+        for (int i = 1; i < depth; i++) {
+            source.append("{ var pad").append(i).append(" = 0;\n");
+        }
+        source.append(loop);
+        for (int i = 1; i < depth; i++) {
+            source.append("}\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    // Best round on the tree-walker and on the VM, in nanoseconds.
+    private static long[] measure(String source) {
+        Compilation compilation = Mocha.compile(null, source);
+        if (compilation.hadError) throw new IllegalStateException("benchmark source did not compile");
+        List<Stmt> statements = compilation.statements;
+        Interpreter interpreter = new Interpreter();
+        long tree = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            interpreter.interpret(statements);
+            tree = Math.min(tree, System.nanoTime() - start);
+        }
+        VmFunction script = new BytecodeCompiler(compilation).compile(statements);
+        if (compilation.hadError) throw new IllegalStateException("benchmark source did not compile for the VM");
+        VM vm = new VM();
+        long bytecode = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            vm.interpret(script);
+            bytecode = Math.min(bytecode, System.nanoTime() - start);
+        }
+        if (Mocha.hadRuntimeError) throw new IllegalStateException("benchmark source failed");
+        return new long[]{tree, bytecode};
+    }
+}
@@ -0,0 +1,350 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static src.craftingInterpreters.mocha.TokenType.*;
+
+// Runs after the ConstantFolder. Inside each while loop, wraps the largest
+// subexpressions whose value cannot change between iterations in Expr.Invariant,
+// which the Interpreter evaluates once per run of the loop, and marks loops of
+// the form `while (i < n) { ...; i = i + step; }` as CountedLoops. It is
+// conservative: a loop that calls anything keeps no globals or captured locals
+// invariant, and one that sets any property keeps no property reads.
+// -Dmocha.loops=false turns the pass off.
+class LoopOptimizer implements Expr.Visitor<Expr> {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("mocha.loops", "true"));
+
+    // The innermost loop being rewritten; null outside loops and in function bodies.
+    private Loop loop;
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        statements.replaceAll(this::optimize);
+        return statements;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression expression) {
+            Expr expr = this.hoist(expression.expression);
+            return expr == expression.expression ? stmt : new Stmt.Expression(expr);
+        } else if (stmt instanceof Stmt.Print print) {
+            Expr expr = this.hoist(print.expression);
+            return expr == print.expression ? stmt : new Stmt.Print(expr);
+        } else if (stmt instanceof Stmt.Var var) {
+            if (null == var.initializer) return stmt;
+            Expr initializer = this.hoist(var.initializer);
+            return initializer == var.initializer ? stmt : new Stmt.Var(var.name, initializer);
+        } else if (stmt instanceof Stmt.Return ret) {
+            if (null == ret.value) return stmt;
+            Expr value = this.hoist(ret.value);
+            if (value == ret.value) return stmt;
+            Stmt.Return optimized = new Stmt.Return(ret.keyword, value);
+            optimized.tailCall = ret.tailCall;
+            return optimized;
+        } else if (stmt instanceof Stmt.Block block) {
+            this.optimize(block.statements);
+            return block;
+        } else if (stmt instanceof Stmt.If ifStmt) {
+            Expr condition = this.hoist(ifStmt.condition);
+            Stmt thenBranch = this.optimize(ifStmt.thenBranch);
+            Stmt elseBranch = null == ifStmt.elseBranch ? null : this.optimize(ifStmt.elseBranch);
+            if (condition == ifStmt.condition && thenBranch == ifStmt.thenBranch && elseBranch == ifStmt.elseBranch) return stmt;
+            return new Stmt.If(condition, thenBranch, elseBranch);
+        } else if (stmt instanceof Stmt.While whileStmt) {
+            return this.optimizeLoop(whileStmt);
+        } else if (stmt instanceof Stmt.Function function) {
+            this.optimizeBody(function);
+        } else if (stmt instanceof Stmt.Class klass) {
+            for (Stmt.Function method : klass.methods) {
+                this.optimizeBody(method);
+            }
+        }
+        return stmt;
+    }
+
+    // A function body only runs when called, so it is optimized on its own.
+    private void optimizeBody(Stmt.Function function) {
+        Loop enclosing = this.loop;
+        this.loop = null;
+        this.optimize(function.body);
+        this.loop = enclosing;
+    }
+
+    private Stmt optimizeLoop(Stmt.While stmt) {
+        Loop enclosing = this.loop;
+        this.loop = new Loop(stmt.scope);
+        this.loop.scan(stmt.condition);
+        this.loop.scan(stmt.body);
+        Expr condition = this.hoist(stmt.condition);
+        Stmt body = this.optimize(stmt.body);
+        Stmt.While optimized = new Stmt.While(condition, body);
+        optimized.scope = stmt.scope;
+        optimized.invariants = this.loop.invariants;
+        optimized.counted = this.counted(optimized);
+        this.loop = enclosing;
+        return optimized;
+    }
+
+    // The counted form of the loop, or null if it does not have that shape.
+    private CountedLoop counted(Stmt.While stmt) {
+        if (!(stmt.condition instanceof Expr.Binary condition)) return null;
+        TokenType comparison = condition.operator.type;
+        if (LESS != comparison && LESS_EQUAL != comparison && GREATER != comparison && GREATER_EQUAL != comparison) {
+            return null;
+        }
+        if (!(condition.left instanceof Expr.Variable counter) || 0 > counter.depth) return null;
+        Resolver.Local local = counter.local;
+        // The step must be the only write to the counter, and nothing may write it through a cell.
+        if (null == local || local.captured || 1 != this.loop.assignments.getOrDefault(local, 0)) return null;
+        if (!this.isInvariant(condition.right)) return null;
+        if (!(stmt.body instanceof Stmt.Block block) || block.statements.isEmpty()) return null;
+        List<Stmt> statements = block.statements;
+        if (!(statements.get(statements.size() - 1) instanceof Stmt.Expression last)
+                || !(last.expression instanceof Expr.Assign assign)
+                || local != assign.local
+                || !(assign.value instanceof Expr.Binary value)) {
+            return null;
+        }
+        double step;
+        if (value.right instanceof Expr.Literal literal && literal.value instanceof Double number
+                && value.left instanceof Expr.Variable variable && local == variable.local) {
+            if (PLUS == value.operator.type) {
+                step = number;
+            } else if (MINUS == value.operator.type) {
+                step = -number;
+            } else {
+                return null;
+            }
+        } else if (PLUS == value.operator.type && value.left instanceof Expr.Literal literal
+                && literal.value instanceof Double number
+                && value.right instanceof Expr.Variable variable && local == variable.local) {
+            step = number;
+        } else {
+            return null;
+        }
+        List<Stmt> body = new ArrayList<>(statements.subList(0, statements.size() - 1));
+        return new CountedLoop(counter, comparison, condition.right, step, body, block.declarations);
+    }
+
+    // Wraps expr if it is invariant and worth caching, or else rewrites inside it.
+    private Expr hoist(Expr expr) {
+        if (null == this.loop) return expr;
+        if (isWorthCaching(expr) && this.isInvariant(expr)) {
+            return new Expr.Invariant(expr, this.loop.invariants++);
+        }
+        return expr.accept(this);
+    }
+
+    private static boolean isWorthCaching(Expr expr) {
+        if (expr instanceof Expr.Grouping grouping) return isWorthCaching(grouping.expression);
+        return expr instanceof Expr.Binary || expr instanceof Expr.Unary
+                || expr instanceof Expr.Logical || expr instanceof Expr.Get;
+    }
+
+    private boolean isInvariant(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This || expr instanceof Expr.Invariant) {
+            return true;
+        } else if (expr instanceof Expr.Variable variable) {
+            return this.loop.isInvariant(variable);
+        } else if (expr instanceof Expr.Grouping grouping) {
+            return this.isInvariant(grouping.expression);
+        } else if (expr instanceof Expr.Unary unary) {
+            return this.isInvariant(unary.right);
+        } else if (expr instanceof Expr.Binary binary) {
+            return this.isInvariant(binary.left) && this.isInvariant(binary.right);
+        } else if (expr instanceof Expr.Logical logical) {
+            return this.isInvariant(logical.left) && this.isInvariant(logical.right);
+        } else if (expr instanceof Expr.Get get) {
+            return !this.loop.hasCalls && !this.loop.hasSets && this.isInvariant(get.object);
+        }
+        return false;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = this.hoist(expr.value);
+        if (value == expr.value) return expr;
+        Expr.Assign optimized = new Expr.Assign(expr.name, value);
+        optimized.depth = expr.depth;
+        optimized.slot = expr.slot;
+        optimized.local = expr.local;
+        return optimized;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = this.hoist(expr.left);
+        Expr right = this.hoist(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        expr.arguments.replaceAll(this::hoist);
+        Expr callee = this.hoist(expr.callee);
+        if (callee == expr.callee) return expr;
+        return new Expr.Call(callee, expr.paren, expr.arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = this.hoist(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = this.hoist(expr.expression);
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    // The body runs against the call's own arguments, so only those are rewritten.
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        expr.call.arguments.replaceAll(this::hoist);
+        return expr;
+    }
+
+    @Override
+    public Expr visitInvariantExpr(Expr.Invariant expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = this.hoist(expr.left);
+        Expr right = this.hoist(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = this.hoist(expr.object);
+        Expr value = this.hoist(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = this.hoist(expr.right);
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    // What a loop's condition and body, nested loops included, may change while it runs.
+    private static final class Loop {
+        // Locals declared at this scope index or deeper live inside the loop.
+        final int scope;
+        final Map<Resolver.Local, Integer> assignments = new HashMap<>();
+        final Set<String> globals = new HashSet<>();
+        boolean hasCalls;
+        boolean hasSets;
+        int invariants;
+
+        Loop(int scope) {
+            this.scope = scope;
+        }
+
+        boolean isInvariant(Expr.Variable variable) {
+            Resolver.Local local = variable.local;
+            if (null == local) return !this.hasCalls && !this.globals.contains(variable.name.lexeme);
+            return this.scope > local.scope
+                    && !this.assignments.containsKey(local)
+                    && !(this.hasCalls && local.captured);
+        }
+
+        void scan(Stmt stmt) {
+            if (stmt instanceof Stmt.Expression expression) {
+                this.scan(expression.expression);
+            } else if (stmt instanceof Stmt.Print print) {
+                this.scan(print.expression);
+            } else if (stmt instanceof Stmt.Var var) {
+                if (null != var.initializer) this.scan(var.initializer);
+            } else if (stmt instanceof Stmt.Return ret) {
+                if (null != ret.value) this.scan(ret.value);
+            } else if (stmt instanceof Stmt.Block block) {
+                for (Stmt statement : block.statements) {
+                    this.scan(statement);
+                }
+            } else if (stmt instanceof Stmt.If ifStmt) {
+                this.scan(ifStmt.condition);
+                this.scan(ifStmt.thenBranch);
+                if (null != ifStmt.elseBranch) this.scan(ifStmt.elseBranch);
+            } else if (stmt instanceof Stmt.While whileStmt) {
+                this.scan(whileStmt.condition);
+                this.scan(whileStmt.body);
+            }
+            // Function and class bodies do nothing until called, which hasCalls covers.
+        }
+
+        void scan(Expr expr) {
+            if (expr instanceof Expr.Assign assign) {
+                if (null == assign.local) {
+                    this.globals.add(assign.name.lexeme);
+                } else {
+                    this.assignments.merge(assign.local, 1, Integer::sum);
+                }
+                this.scan(assign.value);
+            } else if (expr instanceof Expr.Binary binary) {
+                this.scan(binary.left);
+                this.scan(binary.right);
+            } else if (expr instanceof Expr.Logical logical) {
+                this.scan(logical.left);
+                this.scan(logical.right);
+            } else if (expr instanceof Expr.Unary unary) {
+                this.scan(unary.right);
+            } else if (expr instanceof Expr.Grouping grouping) {
+                this.scan(grouping.expression);
+            } else if (expr instanceof Expr.Call call) {
+                this.hasCalls = true;
+                this.scan(call.callee);
+                for (Expr argument : call.arguments) {
+                    this.scan(argument);
+                }
+            } else if (expr instanceof Expr.Get get) {
+                this.scan(get.object);
+            } else if (expr instanceof Expr.Set set) {
+                this.hasSets = true;
+                this.scan(set.object);
+                this.scan(set.value);
+            } else if (expr instanceof Expr.Inline inline) {
+                // The guard may fall back to calling whatever the name holds by then.
+                this.hasCalls = true;
+                for (Expr argument : inline.call.arguments) {
+                    this.scan(argument);
+                }
+            } else if (expr instanceof Expr.Invariant invariant) {
+                this.scan(invariant.expression);
+            }
+        }
+    }
+}
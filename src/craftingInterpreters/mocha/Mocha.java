@@ -3,33 +3,81 @@ package src.craftingInterpreters.mocha;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 //import java.util.Scanner;
 
 
 public class Mocha {
     private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError;
+    // -Dmocha.tokenArena=true scans the whole source into a packed TokenArena first.
+    private static final boolean TOKEN_ARENA = Boolean.getBoolean("mocha.tokenArena");
+    private static VM vm;
+    private static boolean dumpNodes;
     static boolean hadRuntimeError;
 
     public static void main(String[] args) throws IOException {
-        if (1 < args.length) {
-            System.out.println("Usage: mocha [script]");
-            System.exit(64);
-        } else if (1 == args.length) {
-            runFile(args[0]);
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            if (args[first].equals("--vm")) {
+                vm = new VM();
+            } else if (args[first].equals("--dump-nodes")) {
+                dumpNodes = true;
+            } else {
+                break;
+            }
+        }
+        if (1 < args.length - first || (1 == args.length - first && Files.isDirectory(Paths.get(args[first])))) {
+            runFiles(Arrays.asList(args).subList(first, args.length));
+        } else if (1 == args.length - first) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        // Mapped rather than read, so the script is never copied into a String.
+        if (!run(compile(null, Source.map(Paths.get(path))))) System.exit(64);
+    }
+
+    // Loads many scripts, or every .mocha file under a directory in path order.
+    // They compile in parallel but run one after another in that order, and
+    // nothing runs if any of them has a compile error.
+    private static void runFiles(List<String> arguments) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        for (String argument : arguments) {
+            Path path = Paths.get(argument);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(file -> file.toString().endsWith(".mocha")).sorted().forEach(paths::add);
+                }
+            } else {
+                paths.add(path);
+            }
+        }
+        List<Compilation> compilations = paths.parallelStream().map(path -> {
+            try {
+                return compile(path.toString(), Source.map(path));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).toList();
+        boolean hadError = false;
+        for (Compilation compilation : compilations) {
+            compilation.printErrors(System.err);
+            hadError |= compilation.hadError;
+        }
         if (hadError) System.exit(64);
+        for (Compilation compilation : compilations) {
+            if (!run(compilation) || hadRuntimeError) break;
+        }
     }
 
     private static void runPrompt() throws IOException {
@@ -39,45 +87,67 @@ public class Mocha {
             System.out.print("> ");
             String line = reader.readLine();
             if (null == line) break;
-            run(line);
-            hadError = false;
+            run(compile(null, line));
         }
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    // Scans, parses and resolves one source. Touches no shared state, so any
+    // number of compilations can run at once.
+    static Compilation compile(String name, CharSequence source) {
+        return compile(name, source, TOKEN_ARENA);
     }
 
-
-    private static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
+    static Compilation compile(String name, CharSequence source, boolean tokenArena) {
+        Compilation compilation = new Compilation(name);
+        Scanner scanner = new Scanner(source, compilation);
+        try {
+            // The parser pulls tokens from the scanner as it goes instead of from a list.
+            Parser parser = tokenArena
+                    ? new Parser(scanner.scanArena(), compilation)
+                    : new Parser(scanner, compilation);
+            List<Stmt> statements = parser.parse();
+            // Stop if there was a syntax error.
+            if (compilation.hadError) return compilation;
+            new Resolver(compilation).resolve(statements);
+            if (compilation.hadError) return compilation;
+            if (ConstantFolder.ENABLED) statements = new ConstantFolder().fold(statements);
+            if (Inliner.ENABLED) statements = new Inliner().inline(statements);
+            if (LoopOptimizer.ENABLED) statements = new LoopOptimizer().optimize(statements);
+            compilation.statements = statements;
+        } catch (StackOverflowError overflow) {
+            // The parser and the passes recurse on the tree, so deep enough nesting
+            // runs out of Java stack before anything runs.
+            compilation.error(scanner.line(), "Code nested too deeply.");
+        }
+        return compilation;
     }
 
-    static void error(Token token, String message) {
-        if (TokenType.EOF == token.type) {
-            report(token.line, " at end", message);
+    // Runs a compiled source; false if it had compile errors, which are printed instead.
+    private static boolean run(Compilation compilation) {
+        if (compilation.hadError) {
+            compilation.printErrors(System.err);
+            return false;
+        }
+        if (null != vm) {
+            VmFunction script = new BytecodeCompiler(compilation).compile(compilation.statements);
+            if (compilation.hadError) {
+                compilation.printErrors(System.err);
+                return false;
+            }
+            vm.interpret(script);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            interpreter.interpret(compilation.statements);
+            if (dumpNodes) new SpecializationDump(System.err).dump(compilation.statements);
         }
-    }
-
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-// Stop if there was a syntax error.
-        if (hadError) return;
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if (hadError) return;
-        interpreter.interpret(statements);
+        return true;
     }
 
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        if (null != error.trace) {
+            System.err.println(error.getMessage() + "\n" + error.trace);
+        } else {
+            System.err.println(error.getMessage() + "\n[line " + error.line + "]");
+        }
         hadRuntimeError = true;
     }
 }
\ No newline at end of file
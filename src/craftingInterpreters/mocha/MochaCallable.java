@@ -5,5 +5,28 @@ import java.util.List;
 interface MochaCallable {
     int arity();
 
-    Object call(Interpreter interpreter, List<Object> arguments);
+    // The callee owns the array and may keep it, e.g. as its local slots.
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    // Fast entry points for the common arities; callees override them to skip the array.
+    default Object call0(Interpreter interpreter) {
+        return this.call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return this.call(interpreter, new Object[]{a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return this.call(interpreter, new Object[]{a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return this.call(interpreter, new Object[]{a, b, c});
+    }
+
+    // Compatibility adapter for callers that still build a List.
+    default Object call(Interpreter interpreter, List<Object> arguments) {
+        return this.call(interpreter, arguments.toArray());
+    }
 }
@@ -1,17 +1,28 @@
 package src.craftingInterpreters.mocha;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 class MochaClass implements MochaCallable {
     final String name;
     final MochaClass superclass;
+    // Flattened at creation: inherited methods are copied in and overridden by our own.
     private final Map<String, MochaFunction> methods;
+    private final MochaFunction initializer;
+    private final int arity;
+    final Shape rootShape = new Shape();
 
     MochaClass(String name, MochaClass superclass, Map<String, MochaFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+        Map<String, MochaFunction> table = new HashMap<>();
+        if (null != superclass) {
+            table.putAll(superclass.methods);
+        }
+        table.putAll(methods);
+        this.methods = Map.copyOf(table);
+        this.initializer = this.methods.get("init");
+        this.arity = null == this.initializer ? 0 : this.initializer.arity();
     }
 
     @Override
@@ -21,28 +32,47 @@ class MochaClass implements MochaCallable {
 
     @Override
     public int arity() {
-        MochaFunction initializer = this.findMethod("init");
-        if (null == initializer) return 0;
-        return initializer.arity();
+        return this.arity;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         MochaInstance instance = new MochaInstance(this);
-        MochaFunction initializer = this.findMethod("init");
-        if (null != initializer) {
-            initializer.bind(instance).call(interpreter, arguments);
+        if (null != this.initializer) {
+            this.initializer.invoke(interpreter, instance, arguments);
         }
         return instance;
     }
 
-    public MochaFunction findMethod(String name) {
-        if (this.methods.containsKey(name)) {
-            return this.methods.get(name);
-        }
-        if (null != this.superclass) {
-            return this.superclass.findMethod(name);
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return this.construct(interpreter, 0, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return this.construct(interpreter, 1, a, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return this.construct(interpreter, 2, a, b, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return this.construct(interpreter, 3, a, b, c);
+    }
+
+    private Object construct(Interpreter interpreter, int count, Object a, Object b, Object c) {
+        MochaInstance instance = new MochaInstance(this);
+        if (null != this.initializer) {
+            this.initializer.invoke(interpreter, instance, count, a, b, c);
         }
-        return null;
+        return instance;
+    }
+
+    public MochaFunction findMethod(String name) {
+        return this.methods.get(name);
     }
 }
@@ -1,16 +1,27 @@
 package src.craftingInterpreters.mocha;
 
-import java.util.List;
-
 class MochaFunction implements MochaCallable {
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
     private final Stmt.Function declaration;
-    private final Environment closure;
+    // Only the variables the body captures, not the scopes it was declared in.
+    private final Cell[] upvalues;
+    private final boolean isMethod;
     private final boolean isInitializer;
+    // Only set on bound methods; direct method calls hand the receiver to invoke.
+    private final MochaInstance receiver;
 
-    MochaFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
-        this.closure = closure;
+    MochaFunction(Stmt.Function declaration, Cell[] upvalues, boolean isMethod, boolean isInitializer) {
+        this(declaration, upvalues, isMethod, isInitializer, null);
+    }
+
+    private MochaFunction(Stmt.Function declaration, Cell[] upvalues, boolean isMethod,
+                          boolean isInitializer, MochaInstance receiver) {
+        this.upvalues = upvalues;
         this.declaration = declaration;
+        this.isMethod = isMethod;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
     }
 
     @Override
@@ -19,21 +30,110 @@ class MochaFunction implements MochaCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter,
-                       List<Object> arguments) {
-        Environment environment = new Environment(this.closure);
-        for (int i = 0; i < this.declaration.params.size(); i++) {
-            environment.define(this.declaration.params.get(i).lexeme,
-                    arguments.get(i));
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return this.invoke(interpreter, this.receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return this.invoke(interpreter, this.receiver, 0, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return this.invoke(interpreter, this.receiver, 1, a, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return this.invoke(interpreter, this.receiver, 2, a, b, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return this.invoke(interpreter, this.receiver, 3, a, b, c);
+    }
+
+    Object invoke(Interpreter interpreter, MochaInstance receiver, Object[] arguments) {
+        return trampoline(interpreter, this.activate(interpreter, receiver, arguments));
+    }
+
+    // Entry for up to three arguments; count says how many of a, b and c are used.
+    Object invoke(Interpreter interpreter, MochaInstance receiver, int count, Object a, Object b, Object c) {
+        JitCode compiled = this.compiled();
+        if (null != compiled) {
+            Object[] arguments = switch (count) {
+                case 0 -> NO_ARGUMENTS;
+                case 1 -> new Object[]{a};
+                case 2 -> new Object[]{a, b};
+                default -> new Object[]{a, b, c};
+            };
+            return trampoline(interpreter, compiled.invoke(interpreter, this.upvalues, receiver, arguments));
+        }
+        Environment environment = new Environment(null);
+        if (this.isMethod) environment.define(receiver);
+        if (0 < count) environment.define(a);
+        if (1 < count) environment.define(b);
+        if (2 < count) environment.define(c);
+        return trampoline(interpreter, this.run(interpreter, environment, receiver));
+    }
+
+    // Runs the tail calls left pending by the body that just finished, one after
+    // another in this Java frame, so tail recursion needs constant stack.
+    private static Object trampoline(Interpreter interpreter, Object value) {
+        for (MochaCallable callee = interpreter.takeTailCallee(); null != callee; callee = interpreter.takeTailCallee()) {
+            Object[] arguments = interpreter.takeTailArguments();
+            if (!(callee instanceof MochaFunction function)) {
+                return callee.call(interpreter, arguments);
+            }
+            value = function.activate(interpreter, function.receiver, arguments);
+        }
+        return value;
+    }
+
+    // A single activation; a tail call it ends with is left for the trampoline.
+    private Object activate(Interpreter interpreter, MochaInstance receiver, Object[] arguments) {
+        JitCode compiled = this.compiled();
+        if (null != compiled) {
+            return compiled.invoke(interpreter, this.upvalues, receiver, arguments);
+        }
+        Environment environment;
+        if (this.isMethod) {
+            environment = new Environment(null);
+            environment.define(receiver);
+            for (Object argument : arguments) {
+                environment.define(argument);
+            }
+        } else {
+            // The argument array becomes the parameter slots of the new scope.
+            environment = new Environment(null, arguments);
         }
-        try {
-            interpreter.executeBlock(this.declaration.body, environment);
-        } catch (Return returnValue) {
-            if (this.isInitializer) return this.closure.getAt(0, "this");
-            return returnValue.value;
+        return this.run(interpreter, environment, receiver);
+    }
+
+    // Counts the call and compiles the body once it is hot; null while interpreted.
+    private JitCode compiled() {
+        Stmt.Function declaration = this.declaration;
+        // The counter lives on the declaration, so bound copies of a method share it.
+        if (null == declaration.compiled && !this.isInitializer && JitCompiler.THRESHOLD == ++declaration.calls) {
+            declaration.compiled = JitCompiler.compile(declaration, this.isMethod);
         }
-        if (this.isInitializer) return this.closure.getAt(0, "this");
-        return null;
+        return declaration.compiled;
+    }
+
+    private Object run(Interpreter interpreter, Environment environment, MochaInstance receiver) {
+        interpreter.executeBody(this.declaration.body, environment, this.upvalues);
+        Object value = interpreter.completeReturn();
+        if (this.isInitializer) return receiver;
+        return value;
+    }
+
+    boolean isDeclaredBy(Stmt.Function declaration) {
+        return declaration == this.declaration;
+    }
+
+    boolean isUnboundMethod() {
+        return this.isMethod && null == this.receiver;
     }
 
     @Override
@@ -42,9 +142,6 @@ class MochaFunction implements MochaCallable {
     }
 
     MochaFunction bind(MochaInstance instance) {
-        Environment environment = new Environment(this.closure);
-        environment.define("this", instance);
-        return new MochaFunction(this.declaration, environment, this.isInitializer);
-
+        return new MochaFunction(this.declaration, this.upvalues, true, this.isInitializer, instance);
     }
 }
@@ -1,14 +1,18 @@
 package src.craftingInterpreters.mocha;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class MochaInstance {
-    private final MochaClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private static final Object[] NO_VALUES = new Object[0];
+
+    final MochaClass klass;
+    // Field values are laid out by the shape; see PropertyCache for the cached paths.
+    Shape shape;
+    Object[] values = NO_VALUES;
 
     MochaInstance(MochaClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
     }
 
     @Override
@@ -17,8 +21,9 @@ class MochaInstance {
     }
 
     Object get(Token name) {
-        if (this.fields.containsKey(name.lexeme)) {
-            return this.fields.get(name.lexeme);
+        int slot = this.shape.slotOf(name.lexeme);
+        if (0 <= slot) {
+            return this.values[slot];
         }
 
         MochaFunction method = this.klass.findMethod(name.lexeme);
@@ -30,6 +35,18 @@ class MochaInstance {
     }
 
     void set(Token name, Object value) {
-        this.fields.put(name.lexeme, value);
+        int slot = this.shape.slotOf(name.lexeme);
+        if (0 > slot) {
+            slot = this.shape.size;
+            this.reshape(this.shape.withField(name.lexeme));
+        }
+        this.values[slot] = value;
+    }
+
+    void reshape(Shape next) {
+        if (this.values.length < next.size) {
+            this.values = Arrays.copyOf(this.values, Math.max(4, 2 * this.values.length));
+        }
+        this.shape = next;
     }
 }
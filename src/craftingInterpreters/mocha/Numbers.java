@@ -0,0 +1,28 @@
+package src.craftingInterpreters.mocha;
+
+// Boxing for Mocha numbers. Small integral values, the usual loop counters and
+// indexes, come from a preallocated table instead of a fresh Double.
+final class Numbers {
+    static final int CACHE_LOW = -128;
+    static final int CACHE_HIGH = 1023;
+    private static final Double[] CACHE = new Double[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = (double) (CACHE_LOW + i);
+        }
+    }
+
+    private Numbers() {
+    }
+
+    static Double box(double value) {
+        int index = (int) value;
+        // -0.0 compares equal to 0 but prints differently, so it is never cached.
+        if (index == value && CACHE_LOW <= index && index <= CACHE_HIGH
+                && (0 != index || 0L == Double.doubleToRawLongBits(value))) {
+            return CACHE[index - CACHE_LOW];
+        }
+        return value;
+    }
+}
@@ -3,14 +3,39 @@ package src.craftingInterpreters.mocha;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static src.craftingInterpreters.mocha.TokenType.*;
 
 public class Parser {
-    private final List<Token> tokens;
-    private int current;
-    Parser(List<Token> tokens) {
+    // Tokens are pulled one at a time; the parser only ever looks one token ahead.
+    private final Supplier<Token> tokens;
+    private Token previous;
+    private Token current;
+    // Set instead when parsing from a TokenArena, which is read by index. A Token
+    // object is then made only for the tokens that end up in the tree.
+    private final TokenArena arena;
+    private int index;
+    private final Compilation compilation;
+    Parser(Scanner scanner, Compilation compilation) {
+        this(scanner::next, compilation);
+    }
+
+    Parser(List<Token> tokens, Compilation compilation) {
+        this(tokens.iterator()::next, compilation);
+    }
+
+    private Parser(Supplier<Token> tokens, Compilation compilation) {
         this.tokens = tokens;
+        this.compilation = compilation;
+        this.current = tokens.get();
+        this.arena = null;
+    }
+
+    Parser(TokenArena arena, Compilation compilation) {
+        this.tokens = null;
+        this.compilation = compilation;
+        this.arena = arena;
     }
 
     private Expr expression() {
@@ -20,7 +45,8 @@ public class Parser {
     private Expr assignment() {
         Expr expr = this.or();
         if (this.match(EQUAL)) {
-            Token equals = this.previous();
+            // Only an invalid target needs the '=' token, for its error.
+            Token equals = expr instanceof Expr.Variable || expr instanceof Expr.Get ? null : this.previous();
             Expr value = this.assignment();
 
             if (expr instanceof Expr.Variable) {
@@ -172,7 +198,7 @@ public class Parser {
 
     private Expr comparison() {
         Expr expr = this.term();
-        while (this.match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
+        while (this.match(GREATER, GREATER_EQUAL) || this.match(LESS, LESS_EQUAL)) {
             Token operator = this.previous();
             Expr right = this.term();
             expr = new Expr.Binary(expr, operator, right);
@@ -193,7 +219,8 @@ public class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = this.consume(IDENTIFIER, "Except Variable name.");
+        this.consume(IDENTIFIER, "Except Variable name.");
+        Token name = this.previous();
         Expr initializer = null;
         if (this.match(EQUAL)) {
             initializer = this.expression();
@@ -203,17 +230,19 @@ public class Parser {
         return new Stmt.Var(name, initializer);
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (this.check(type)) {
-                this.advance();
-                return true;
-            }
-
+    // One and two types only, so that no call allocates a varargs array.
+    private boolean match(TokenType type) {
+        if (this.check(type)) {
+            this.advance();
+            return true;
         }
         return false;
     }
 
+    private boolean match(TokenType first, TokenType second) {
+        return this.match(first) || this.match(second);
+    }
+
     private Expr factor() {
         Expr expr = this.unary();
         while (this.match(SLASH, STAR)) {
@@ -239,8 +268,9 @@ public class Parser {
             if (this.match(LEFT_PAREN)) {
                 expr = this.finishCall(expr);
             } else if (this.match(DOT)) {
-                Token name = this.consume(IDENTIFIER,
+                this.consume(IDENTIFIER,
                         "Expect property name after '.'.");
+                Token name = this.previous();
                 expr = new Expr.Get(expr, name);
             } else {
                 break;
@@ -259,8 +289,9 @@ public class Parser {
                 arguments.add(this.expression());
             } while (this.match(COMMA));
         }
-        Token paren = this.consume(RIGHT_PAREN,
+        this.consume(RIGHT_PAREN,
                 "Expect ')' after arguments.");
+        Token paren = this.previous();
         return new Expr.Call(callee, paren, arguments);
     }
 
@@ -269,13 +300,14 @@ public class Parser {
         if (this.match(TRUE)) return new Expr.Literal(true);
         if (this.match(NIL)) return new Expr.Literal(null);
         if (this.match(NUMBER, STRING)) {
-            return new Expr.Literal(this.previous().literal);
+            return new Expr.Literal(null != this.arena ? this.arena.literal(this.index - 1) : this.previous.literal);
         }
         if (this.match(THIS)) return new Expr.This(this.previous());
         if (this.match(SUPER)) {
             Token keyword = this.previous();
             this.consume(DOT, "Expect '.' after super.");
-            Token method = this.consume(IDENTIFIER, "Expect superclass method name.");
+            this.consume(IDENTIFIER, "Expect superclass method name.");
+            Token method = this.previous();
             return new Expr.Super(keyword, method);
         }
         if (this.match(IDENTIFIER)) {
@@ -291,16 +323,20 @@ public class Parser {
 
     private boolean check(TokenType type) {
         if (this.isAtEnd()) return false;
-        return this.peek().type == type;
+        return this.peekType() == type;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (this.check(type)) return this.advance();
+    // Callers that keep the consumed token take it from previous().
+    private void consume(TokenType type, String message) {
+        if (this.check(type)) {
+            this.advance();
+            return;
+        }
         throw this.error(this.peek(), message);
     }
 
     private ParseError error(Token token, String message) {
-        Mocha.error(token, message);
+        this.compilation.error(token, message);
         return new ParseError();
     }
 
@@ -313,9 +349,14 @@ public class Parser {
         return statements;
     }
 
-    private Token advance() {
-        if (!this.isAtEnd()) this.current++;
-        return this.previous();
+    private void advance() {
+        if (this.isAtEnd()) return;
+        if (null != this.arena) {
+            this.index++;
+        } else {
+            this.previous = this.current;
+            this.current = this.tokens.get();
+        }
     }
 
     private Stmt declaration() {
@@ -331,7 +372,8 @@ public class Parser {
     }
 
     private Stmt classDeclaration() {
-        Token name = this.consume(IDENTIFIER, "Expect class name.");
+        this.consume(IDENTIFIER, "Expect class name.");
+        Token name = this.previous();
         Expr.Variable superclass = null;
         if (this.match(LESS)) {
             this.consume(IDENTIFIER, "Expect superclass name.");
@@ -347,7 +389,8 @@ public class Parser {
     }
 
     private Stmt.Function function(String kind) {
-        Token name = this.consume(IDENTIFIER, "Expect " + kind + " name.");
+        this.consume(IDENTIFIER, "Expect " + kind + " name.");
+        Token name = this.previous();
         this.consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
         if (!this.check(RIGHT_PAREN)) {
@@ -355,8 +398,8 @@ public class Parser {
                 if (255 <= parameters.size()) {
                     throw this.error(this.peek(), "Can't have more than 255 parameters.");
                 }
-                parameters.add(
-                        this.consume(IDENTIFIER, "Expect parameter name."));
+                this.consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(this.previous());
             } while (this.match(COMMA));
         }
         this.consume(RIGHT_PAREN, "Expect ')' after parameters.");
@@ -366,22 +409,29 @@ public class Parser {
     }
 
     private boolean isAtEnd() {
-        return EOF == this.peek().type;
+        return EOF == this.peekType();
+    }
+
+    private TokenType peekType() {
+        if (null != this.arena) return this.arena.type(this.index);
+        return this.current.type;
     }
 
     private Token peek() {
-        return this.tokens.get(this.current);
+        if (null != this.arena) return this.arena.token(this.index);
+        return this.current;
     }
 
     private Token previous() {
-        return this.tokens.get(this.current - 1);
+        if (null != this.arena) return this.arena.token(this.index - 1);
+        return this.previous;
     }
 
     private void synchronize() {
         this.advance();
         while (!this.isAtEnd()) {
-            if (SEMICOLON == this.previous().type) return;
-            switch (this.peek().type) {
+            if (SEMICOLON == (null != this.arena ? this.arena.type(this.index - 1) : this.previous.type)) return;
+            switch (this.peekType()) {
                 case CLASS:
                 case FUN:
                 case VAR:
@@ -0,0 +1,47 @@
+package src.craftingInterpreters.mocha;
+
+// Parses each case from the Scanner's token stream and from a TokenArena and
+// reports any whose compile errors or program output differ between the two.
+// Exits 1 if one did.
+public class ParserCheck {
+    private static final String[][] CASES = {
+            {"expressions and precedence",
+                    "print 1 + 2 * 3 - 4 / 2;\nprint !(1 < 2) == false;\nprint 1 <= 1 and 2 >= 3 or 4 > 3;\n"
+                            + "print -(2.5) != 2.5;\nprint \"a\" + \"b\";\nprint nil;\n"},
+            {"statements and scopes",
+                    "var a = 1;\n{ var a = 2; print a; }\nprint a;\n"
+                            + "for (var i = 0; i < 3; i = i + 1) { if (i == 1) print i; {} }\n"
+                            + "var w = 0;\nwhile (w < 2) w = w + 1;\nprint w;\n"},
+            {"functions, closures and calls",
+                    "fun make(n) { var c = n; fun inc() { c = c + 1; return c; } return inc; }\n"
+                            + "var f = make(10);\nf();\nprint f();\nfun none() { return; }\nprint none();\n"},
+            {"classes, fields and super",
+                    "class A { init(x) { this.x = x; } get() { return this.x; } }\n"
+                            + "class B < A { get() { return super.get() * 2; } }\n"
+                            + "var b = B(4);\nb.y = b.get();\nprint b.y;\nprint b;\n"},
+            {"comments and lines in strings",
+                    "// a comment\nvar s = \"two\nlines\";\nprint s;\nprint -s;\n"},
+            {"runtime error line",
+                    "var x = 1;\n\n\nprint x.y;\n"},
+            {"invalid assignment target", "var a = 1;\n1 = a;\nprint a;\n"},
+            {"missing semicolon and recovery", "var a = 1\nprint a;\nvar b = ;\nfun f() { return 1 }\n"},
+            {"error at end", "print (1 + 2"},
+            {"unterminated string", "print \"open;\n"},
+            {"too many arguments", "fun f() {}\nf(" + "1, ".repeat(255) + "1);\n"},
+    };
+
+    public static void main(String[] args) {
+        Checks.compare(CASES, "stream", source -> run(source, false), "arena", source -> run(source, true));
+    }
+
+    private static String run(String source, boolean tokenArena) {
+        Compilation compilation = Mocha.compile(null, source, tokenArena);
+        return Checks.capture(() -> {
+            if (compilation.hadError) {
+                compilation.printErrors(System.out);
+            } else {
+                new Interpreter().interpret(compilation.statements);
+            }
+        });
+    }
+}
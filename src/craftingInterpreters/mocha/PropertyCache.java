@@ -0,0 +1,91 @@
+package src.craftingInterpreters.mocha;
+
+// Polymorphic inline cache of an Expr.Get or Expr.Set site, keyed by instance shape.
+// A hit costs a shape compare and an array access; past MAX_ENTRIES shapes the site
+// is megamorphic and falls back to the uncached lookups on MochaInstance.
+final class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    private final int[] slots = new int[MAX_ENTRIES];
+    // Get sites: the method to bind when the shape has no such field.
+    private final MochaFunction[] methods = new MochaFunction[MAX_ENTRIES];
+    // Set sites: the shape an instance moves to when the store adds the field.
+    private final Shape[] transitions = new Shape[MAX_ENTRIES];
+    private int size;
+
+    Object get(MochaInstance instance, Token name) {
+        int entry = this.entry(instance, name);
+        if (0 > entry) return instance.get(name);
+        MochaFunction method = this.methods[entry];
+        if (null == method) return instance.values[this.slots[entry]];
+        return method.bind(instance);
+    }
+
+    // Like get, but a method comes back unbound so a call site can pass the receiver itself.
+    Object getUnbound(MochaInstance instance, Token name) {
+        int entry = this.entry(instance, name);
+        if (0 > entry) {
+            int slot = instance.shape.slotOf(name.lexeme);
+            if (0 <= slot) return instance.values[slot];
+            MochaFunction method = instance.klass.findMethod(name.lexeme);
+            if (null == method) {
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            }
+            return method;
+        }
+        MochaFunction method = this.methods[entry];
+        if (null == method) return instance.values[this.slots[entry]];
+        return method;
+    }
+
+    // Index of the entry for the instance's shape, adding one on a miss; -1 once megamorphic.
+    private int entry(MochaInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < this.size; i++) {
+            if (shape == this.shapes[i]) return i;
+        }
+        if (MAX_ENTRIES == this.size) return -1;
+
+        int slot = shape.slotOf(name.lexeme);
+        MochaFunction method = null;
+        if (0 > slot) {
+            method = instance.klass.findMethod(name.lexeme);
+            if (null == method) {
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            }
+        }
+        this.shapes[this.size] = shape;
+        this.slots[this.size] = slot;
+        this.methods[this.size] = method;
+        return this.size++;
+    }
+
+    void set(MochaInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < this.size; i++) {
+            if (shape == this.shapes[i]) {
+                if (null != this.transitions[i]) instance.reshape(this.transitions[i]);
+                instance.values[this.slots[i]] = value;
+                return;
+            }
+        }
+        if (MAX_ENTRIES == this.size) {
+            instance.set(name, value);
+            return;
+        }
+
+        int slot = shape.slotOf(name.lexeme);
+        Shape next = null;
+        if (0 > slot) {
+            next = shape.withField(name.lexeme);
+            slot = shape.size;
+        }
+        this.shapes[this.size] = shape;
+        this.slots[this.size] = slot;
+        this.transitions[this.size] = next;
+        this.size++;
+        if (null != next) instance.reshape(next);
+        instance.values[slot] = value;
+    }
+}
@@ -1,22 +1,48 @@
 package src.craftingInterpreters.mocha;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // Depth of a variable that belongs to an enclosing function. Its slot is then
+    // an index into the current function's captured cells (see Stmt.Function.captures).
+    static final int UPVALUE = -2;
+    // Depth of a variable that is not declared in any scope. Its slot then caches
+    // the global's slot in the global Environment once it has been looked up.
+    static final int GLOBAL = -1;
+    // Depth of a parameter inside a body the Inliner copied into a call site. Its
+    // slot is the index of the call's argument.
+    static final int INLINED = -3;
+
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
+    // Top-level code behaves as a function whose scopes start at the bottom of the stack.
+    private FunctionScope function = new FunctionScope(null, 0);
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    private final Compilation compilation;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(Compilation compilation) {
+        this.compilation = compilation;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        int declarations = 0;
+        for (Stmt statement : stmt.statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+                declarations++;
+            }
+        }
+        stmt.declarations = declarations;
+        // A block that declares nothing runs in the enclosing scope, so it gets no
+        // scope here either and the depths resolved inside it skip over it.
+        if (0 == declarations) {
+            this.resolve(stmt.statements);
+            return null;
+        }
         this.beginScope();
         this.resolve(stmt.statements);
         this.endScope();
@@ -35,17 +61,30 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!this.scopes.isEmpty() && this.scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Mocha.error(expr.name, "Can't read local variable in its own initializer.");
+        if (!this.scopes.isEmpty()) {
+            Local local = this.scopes.peek().get(expr.name.lexeme);
+            if (null != local && !local.defined) {
+                this.compilation.error(expr.name, "Can't read local variable in its own initializer.");
+            }
+        }
+        Local local = this.resolveLocal(expr.name.lexeme);
+        if (null != local) {
+            expr.depth = this.depthOf(local);
+            expr.slot = this.slotOf(local);
+            expr.local = local;
         }
-        this.resolveLocal(expr, expr.name);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         this.resolve(expr.value);
-        this.resolveLocal(expr, expr.name);
+        Local local = this.resolveLocal(expr.name.lexeme);
+        if (null != local) {
+            expr.depth = this.depthOf(local);
+            expr.slot = this.slotOf(local);
+            expr.local = local;
+        }
         return null;
     }
 
@@ -78,6 +117,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        this.resolve(expr.call);
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        this.resolve(expr.expression);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
         return null;
@@ -100,21 +151,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (ClassType.NONE == this.currentClass) {
-            Mocha.error(expr.keyword, "Can't use 'super' outside of a class.");
+            this.compilation.error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (ClassType.SUBCLASS != this.currentClass) {
-            Mocha.error(expr.keyword, "Can't use 'super' in a class with no subclass.");
+            this.compilation.error(expr.keyword, "Can't use 'super' in a class with no subclass.");
+        }
+        Local local = this.resolveLocal(expr.keyword.lexeme);
+        if (null != local) {
+            expr.depth = this.depthOf(local);
+            expr.slot = this.slotOf(local);
+        }
+        Local receiver = this.resolveLocal("this");
+        if (null != receiver) {
+            expr.thisDepth = this.depthOf(receiver);
+            expr.thisSlot = this.slotOf(receiver);
         }
-        this.resolveLocal(expr, expr.keyword);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (ClassType.NONE == this.currentClass) {
-            Mocha.error(expr.keyword, "Can't use 'THIS' outside of a class.");
+            this.compilation.error(expr.keyword, "Can't use 'THIS' outside of a class.");
             return null;
         }
-        this.resolveLocal(expr, expr.keyword);
+        Local local = this.resolveLocal(expr.keyword.lexeme);
+        if (null != local) {
+            expr.depth = this.depthOf(local);
+            expr.slot = this.slotOf(local);
+        }
         return null;
     }
 
@@ -157,20 +221,24 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (FunctionType.NONE == this.currentFunction) {
-            Mocha.error(stmt.keyword, "Can't return from top-level code.");
+            this.compilation.error(stmt.keyword, "Can't return from top-level code.");
         }
         if (null != stmt.value) {
             if (FunctionType.INITIALIZER == this.currentFunction) {
-                Mocha.error(stmt.keyword,
+                this.compilation.error(stmt.keyword,
                         "Can't return a value from an initializer.");
             }
             this.resolve(stmt.value);
+            // Nothing runs after a returned call, so its callee can reuse the caller's frame.
+            stmt.tailCall = stmt.value instanceof Expr.Call;
         }
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        // Locals declared at this scope index or deeper are declared inside the loop.
+        stmt.scope = this.scopes.size();
         this.resolve(stmt.condition);
         this.resolve(stmt.body);
         return null;
@@ -183,7 +251,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         this.declare(stmt.name);
         this.define(stmt.name);
         if (null != stmt.superclass && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Mocha.error(stmt.superclass.name, "A class cannot inherit from itself.");
+            this.compilation.error(stmt.superclass.name, "A class cannot inherit from itself.");
         }
         if (null != stmt.superclass) {
             this.currentClass = ClassType.SUBCLASS;
@@ -191,10 +259,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
         if (null != stmt.superclass) {
             this.beginScope();
-            this.scopes.peek().put("super", true);
+            this.declareImplicit("super");
         }
-        this.beginScope();
-        this.scopes.peek().put("this", true);
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -202,7 +268,6 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
             this.resolveFunction(method, declaration);
         }
-        this.endScope();
         if (null != stmt.superclass) {
             this.endScope();
         }
@@ -213,13 +278,20 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = this.currentFunction;
         this.currentFunction = type;
+        this.function = new FunctionScope(this.function, this.scopes.size());
         this.beginScope();
+        // Methods receive "this" in slot 0 of their own scope, ahead of the parameters.
+        if (FunctionType.METHOD == type || FunctionType.INITIALIZER == type) {
+            this.declareImplicit("this");
+        }
         for (Token param : function.params) {
             this.declare(param);
             this.define(param);
         }
         this.resolve(function.body);
         this.endScope();
+        function.captures = this.function.captures.toArray(new Capture[0]);
+        this.function = this.function.enclosing;
         this.currentFunction = enclosingFunction;
 
     }
@@ -250,25 +322,89 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void declare(Token name) {
         if (this.scopes.isEmpty()) return;
 
-        Map<String, Boolean> scope = this.scopes.peek();
+        Map<String, Local> scope = this.scopes.peek();
         if (scope.containsKey(name.lexeme)) {
-            Mocha.error(name, "Already variable with this name in this scope");
+            this.compilation.error(name, "Already variable with this name in this scope");
         }
-        scope.put(name.lexeme, false);
+        scope.put(name.lexeme, new Local(this.scopes.size() - 1, scope.size()));
 
     }
 
     private void define(Token name) {
         if (this.scopes.isEmpty()) return;
-        this.scopes.peek().put(name.lexeme, true);
+        this.scopes.peek().get(name.lexeme).defined = true;
+    }
+
+    private void declareImplicit(String name) {
+        Map<String, Local> scope = this.scopes.peek();
+        Local local = new Local(this.scopes.size() - 1, scope.size());
+        local.defined = true;
+        scope.put(name, local);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // Returns null for globals, which keep the -1 depth their node is created with.
+    private Local resolveLocal(String name) {
         for (int i = this.scopes.size() - 1; 0 <= i; i--) {
-            if (this.scopes.get(i).containsKey(name.lexeme)) {
-                this.interpreter.resolve(expr, this.scopes.size() - 1 - i);
-                return;
-            }
+            Local local = this.scopes.get(i).get(name);
+            if (null != local) return local;
+        }
+        return null;
+    }
+
+    private int depthOf(Local local) {
+        if (local.scope < this.function.base) return UPVALUE;
+        return this.scopes.size() - 1 - local.scope;
+    }
+
+    private int slotOf(Local local) {
+        if (local.scope < this.function.base) return this.capture(this.function, local);
+        return local.slot;
+    }
+
+    // Index of the function's capture of an enclosing function's local, adding it
+    // (and the captures it relies on further out) the first time it is needed.
+    private int capture(FunctionScope function, Local local) {
+        local.captured = true;
+        Integer index = function.captureIndex.get(local);
+        if (null != index) return index;
+        Capture capture;
+        if (local.scope >= function.enclosing.base) {
+            // Taken from the scope the closure is created in, function.base - 1.
+            capture = new Capture(function.base - 1 - local.scope, local.slot);
+        } else {
+            capture = new Capture(-1, this.capture(function.enclosing, local));
+        }
+        index = function.captures.size();
+        function.captures.add(capture);
+        function.captureIndex.put(local, index);
+        return index;
+    }
+
+    // Slots are handed out in declaration order, matching the order the
+    // Interpreter defines values into the scope's Environment at runtime.
+    static final class Local {
+        final int scope;
+        final int slot;
+        boolean defined;
+        // Set once a closure captures it, after which calls may change it.
+        boolean captured;
+
+        Local(int scope, int slot) {
+            this.scope = scope;
+            this.slot = slot;
+        }
+    }
+
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        // Index in scopes of the function's parameter scope.
+        final int base;
+        final List<Capture> captures = new ArrayList<>();
+        final Map<Local, Integer> captureIndex = new HashMap<>();
+
+        FunctionScope(FunctionScope enclosing, int base) {
+            this.enclosing = enclosing;
+            this.base = base;
         }
     }
 
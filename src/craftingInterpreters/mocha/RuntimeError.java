@@ -2,9 +2,28 @@ package src.craftingInterpreters.mocha;
 
 public class RuntimeError extends RuntimeException {
     final Token token;
+    final int line;
+    // Mocha-level frames, innermost first, when the error carries a stack trace.
+    final String trace;
 
     RuntimeError(final Token token, final String message) {
         super(message);
         this.token = token;
+        this.line = token.line;
+        this.trace = null;
+    }
+
+    RuntimeError(final int line, final String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
+        this.trace = null;
+    }
+
+    RuntimeError(final int line, final String message, final String trace) {
+        super(message);
+        this.token = null;
+        this.line = line;
+        this.trace = trace;
     }
 }
@@ -0,0 +1,81 @@
+package src.craftingInterpreters.mocha;
+
+// Scan-plus-parse throughput and token memory on a large synthetic script, for
+// the Token list, the Parser pulling tokens from the Scanner, and the TokenArena.
+// "retained" is the heap still held by the scanned tokens before parsing.
+public class ScanBenchmark {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int functions = Benchmarks.count(args, "scan_benchmark [functions]", 20000, 1);
+        String source = script(functions);
+        System.out.printf("%-10s %d chars%n", "source:", source.length());
+        // The first pass only warms up the JVM. The three share the Parser, so
+        // otherwise whichever ran first would be timed before it was compiled
+        // and whichever ran last after its profile was shaped by the others.
+        run(source, false);
+        System.out.printf("%-10s %10s %14s %14s%n", "", "best ms", "allocated MB", "retained MB");
+        run(source, true);
+    }
+
+    private static void run(String source, boolean print) {
+        measure("list", compilation -> new Parser(new Scanner(source, compilation).scanTokens(), compilation).parse(),
+                compilation -> new Scanner(source, compilation).scanTokens(), print);
+        measure("stream", compilation -> new Parser(new Scanner(source, compilation), compilation).parse(), null, print);
+        measure("arena", compilation -> new Parser(new Scanner(source, compilation).scanArena(), compilation).parse(),
+                compilation -> new Scanner(source, compilation).scanArena(), print);
+    }
+
+    // Each round gets a fresh Compilation, so names are interned from scratch.
+    private static void measure(String name, Step scanAndParse, Step scan, boolean print) {
+        long best = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            Compilation compilation = new Compilation(null);
+            long before = Benchmarks.allocatedBytes();
+            long start = System.nanoTime();
+            scanAndParse.run(compilation);
+            best = Math.min(best, System.nanoTime() - start);
+            bytes = Benchmarks.allocatedBytes() - before;
+            if (compilation.hadError) throw new IllegalStateException("benchmark source did not parse");
+        }
+        if (!print) return;
+        String retained = "-";
+        if (null != scan) {
+            long before = usedHeap();
+            Object tokens = scan.run(new Compilation(null));
+            retained = String.format("%.1f", (usedHeap() - before) / 1e6);
+            if (null == tokens) throw new IllegalStateException();
+        }
+        System.out.printf("%-10s %10d %14.1f %14s%n", name + ":", best / 1000000, bytes / 1e6, retained);
+    }
+
+    private interface Step {
+        Object run(Compilation compilation);
+    }
+
+    // Functions, classes and loops in roughly the proportions of our generated scripts.
+    private static String script(int functions) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < functions; i++) {
+            source.append("fun compute").append(i).append("(a, b) {\n")
+                    .append("  var total = 0;\n")
+                    .append("  for (var k = 0; k < a; k = k + 1) { total = total + k * b - 2.5; }\n")
+                    .append("  if (total > 100) return \"big\"; {}\n")
+                    .append("  return total;\n")
+                    .append("}\n")
+                    .append("class Point").append(i).append(" {\n")
+                    .append("  init(x, y) { this.x = x; this.y = y; }\n")
+                    .append("  sum() { return this.x + this.y; }\n")
+                    .append("}\n")
+                    .append("print compute").append(i).append("(").append(i % 10).append(", 3);\n");
+        }
+        return source.toString();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,53 +1,100 @@
 package src.craftingInterpreters.mocha;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static src.craftingInterpreters.mocha.TokenType.*;
 
 public class Scanner {
-    private static final Map<String, TokenType> keywords;
+    // Lexeme shared by every token of a type whose text never varies, so scanning
+    // those copies nothing out of the source; null for identifiers and literals.
+    private static final String[] lexemes = new String[TokenType.values().length];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("for", FOR);
-        keywords.put("if", IF);
-        keywords.put("fun", FUN);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("return", RETURN);
-        keywords.put("true", TRUE);
-        keywords.put("false", FALSE);
-        keywords.put("print", PRINT);
-        keywords.put("super", SUPER);
-        keywords.put("while", WHILE);
-        keywords.put("var", VAR);
-        keywords.put("this", THIS);
-    }
-
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+        String[][] fixed = {
+                {"(", "LEFT_PAREN"}, {")", "RIGHT_PAREN"}, {"{", "LEFT_BRACE"}, {"}", "RIGHT_BRACE"},
+                {",", "COMMA"}, {".", "DOT"}, {"-", "MINUS"}, {"+", "PLUS"}, {";", "SEMICOLON"},
+                {"/", "SLASH"}, {"*", "STAR"}, {"!", "BANG"}, {"!=", "BANG_EQUAL"}, {"=", "EQUAL"},
+                {"==", "EQUAL_EQUAL"}, {">", "GREATER"}, {">=", "GREATER_EQUAL"}, {"<", "LESS"},
+                {"<=", "LESS_EQUAL"}, {"and", "AND"}, {"class", "CLASS"}, {"else", "ELSE"},
+                {"false", "FALSE"}, {"fun", "FUN"}, {"for", "FOR"}, {"if", "IF"}, {"nil", "NIL"},
+                {"or", "OR"}, {"print", "PRINT"}, {"return", "RETURN"}, {"super", "SUPER"},
+                {"true", "TRUE"}, {"var", "VAR"}, {"while", "WHILE"}, {"this", "THIS"}, {"", "EOF"}
+        };
+        for (String[] token : fixed) {
+            lexemes[TokenType.valueOf(token[1]).ordinal()] = token[0];
+        }
+    }
+
+    // A String for the prompt, a memory-mapped Source for script files.
+    private final CharSequence source;
+    private final Compilation compilation;
+    // What scanToken found: no type for whitespace and comments, and a lexeme
+    // only when scanning had to copy the text out anyway.
+    private TokenType type;
+    private Object literal;
+    private String lexeme;
     private int start;
     private int current;
     private int line = 1;
 
 
-    Scanner(String source) {
+    Scanner(CharSequence source, Compilation compilation) {
         this.source = source;
+        this.compilation = compilation;
+    }
+
+    // The line scanning has reached.
+    int line() {
+        return this.line;
     }
 
+    // Scans everything up front; the Parser pulls tokens one at a time with next().
     List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = this.next();
+            tokens.add(token);
+        } while (EOF != token.type);
+        return tokens;
+    }
+
+    // Scans just far enough to produce the next token; EOF once the source is used up.
+    Token next() {
+        if (!this.scan()) return new Token(EOF, "", null, this.line);
+        String text = null != this.lexeme ? this.lexeme : lexeme(this.type, this.source, this.start, this.current, this.compilation.symbols);
+        return new Token(this.type, text, this.literal, this.line);
+    }
+
+    // Scans everything into the packed representation, which makes no Token objects.
+    TokenArena scanArena() {
+        TokenArena arena = new TokenArena(this.source, this.compilation.symbols);
+        while (this.scan()) {
+            arena.add(this.type, this.start, this.current - this.start, this.line, this.literal);
+        }
+        arena.add(EOF, this.current, 0, this.line, null);
+        return arena;
+    }
+
+    private boolean scan() {
         while (!this.isAtEnd()) {
             this.start = this.current;
+            this.type = null;
+            this.literal = null;
+            this.lexeme = null;
             this.scanToken();
+            if (null != this.type) return true;
         }
-        this.tokens.add(new Token(EOF, "", null, this.line));
-        return this.tokens;
+        return false;
+    }
+
+    // The text of a token found at [start, end), shared for types whose text never varies.
+    static String lexeme(TokenType type, CharSequence source, int start, int end, Symbols symbols) {
+        String text = lexemes[type.ordinal()];
+        if (null != text) return text;
+        if (IDENTIFIER == type) return symbols.intern(source, start, end);
+        return source.subSequence(start, end).toString();
     }
 
     private void scanToken() {
@@ -105,11 +152,6 @@ public class Scanner {
                     this.addToken(SLASH);
                 }
                 break;
-            case 'o':
-                if ('r' == this.peek()) {
-                    this.addToken(OR);
-                }
-                break;
             case ' ':
             case '\r':
             case '\t':
@@ -127,7 +169,7 @@ public class Scanner {
                 } else if (this.isAlpha(c)) {
                     this.identifier();
                 } else {
-                    Mocha.error(this.line, "Unexpected character " + c + ".");
+                    this.compilation.error(this.line, "Unexpected character " + c + ".");
 
                 }
 
@@ -141,23 +183,79 @@ public class Scanner {
             this.advance();
             curr = this.peek();
         }
-        String text = this.source.substring(this.start, this.current);
-        TokenType type = keywords.get(text);
-        if (null == type) {
-            type = IDENTIFIER;
+        // Keywords are told apart on the source characters. A name is interned by
+        // lexeme() only once a Token is made for it, which the arena defers.
+        this.addToken(this.keyword());
+    }
+
+    private TokenType keyword() {
+        switch (this.source.charAt(this.start)) {
+            case 'a':
+                return this.keyword(1, "nd", AND);
+            case 'c':
+                return this.keyword(1, "lass", CLASS);
+            case 'e':
+                return this.keyword(1, "lse", ELSE);
+            case 'f':
+                if (1 < this.current - this.start) {
+                    switch (this.source.charAt(this.start + 1)) {
+                        case 'a':
+                            return this.keyword(2, "lse", FALSE);
+                        case 'o':
+                            return this.keyword(2, "r", FOR);
+                        case 'u':
+                            return this.keyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i':
+                return this.keyword(1, "f", IF);
+            case 'n':
+                return this.keyword(1, "il", NIL);
+            case 'o':
+                return this.keyword(1, "r", OR);
+            case 'p':
+                return this.keyword(1, "rint", PRINT);
+            case 'r':
+                return this.keyword(1, "eturn", RETURN);
+            case 's':
+                return this.keyword(1, "uper", SUPER);
+            case 't':
+                if (1 < this.current - this.start) {
+                    switch (this.source.charAt(this.start + 1)) {
+                        case 'h':
+                            return this.keyword(2, "is", THIS);
+                        case 'r':
+                            return this.keyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v':
+                return this.keyword(1, "ar", VAR);
+            case 'w':
+                return this.keyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    // The keyword type if the rest of the identifier, from offset on, is exactly rest.
+    private TokenType keyword(int offset, String rest, TokenType type) {
+        if (this.current - this.start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (this.source.charAt(this.start + offset + i) != rest.charAt(i)) return IDENTIFIER;
         }
-        this.addToken(type);
+        return type;
     }
 
-    private Boolean isAlpha(char c) {
+    private boolean isAlpha(char c) {
         return ('a' <= c && 'z' >= c) || ('A' <= c && 'Z' >= c) || '_' == c;
     }
 
-    private Boolean isAlphaNumeric(char c) {
+    private boolean isAlphaNumeric(char c) {
         return this.isAlpha(c) || this.isDigit(c);
     }
 
-    private Boolean isDigit(char c) {
+    private boolean isDigit(char c) {
         return '0' <= c && '9' >= c;
     }
 
@@ -169,7 +267,8 @@ public class Scanner {
             while (this.isDigit(this.peek()));
         }
 
-        this.addToken(NUMBER, Double.parseDouble(this.source.substring(this.start, this.current)));
+        String text = this.text(this.start, this.current);
+        this.addToken(NUMBER, Numbers.box(Double.parseDouble(text)), text);
     }
 
     private char peekNext() {
@@ -184,12 +283,12 @@ public class Scanner {
         }
 
         if (this.isAtEnd()) {
-            Mocha.error(this.line, "Unexpected end of string");
+            this.compilation.error(this.line, "Unexpected end of string");
             return;
         }
         this.advance();
 
-        String value = this.source.substring(this.start + 1, this.current - 1);
+        String value = this.text(this.start + 1, this.current - 1);
         this.addToken(STRING, value);
     }
 
@@ -198,7 +297,7 @@ public class Scanner {
         return this.source.charAt(this.current);
     }
 
-    private Boolean match(char expected) {
+    private boolean match(char expected) {
         if (this.isAtEnd()) return false;
         if (this.source.charAt(this.current) != expected) return false;
         this.current++;
@@ -211,12 +310,21 @@ public class Scanner {
     }
 
     private void addToken(TokenType type) {
-        this.addToken(type, null);
+        this.addToken(type, null, null);
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = this.source.substring(this.start, this.current);
-        this.tokens.add(new Token(type, text, literal, this.line));
+        this.addToken(type, literal, null);
+    }
+
+    private void addToken(TokenType type, Object literal, String lexeme) {
+        this.type = type;
+        this.literal = literal;
+        this.lexeme = lexeme;
+    }
+
+    private String text(int start, int end) {
+        return this.source.subSequence(start, end).toString();
     }
 
     private boolean isAtEnd() {
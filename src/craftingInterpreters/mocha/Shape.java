@@ -0,0 +1,38 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hidden class of a MochaInstance: the field layout shared by every instance of a
+// class that gained the same fields in the same order. Each class has its own root,
+// so a shape also identifies the class and with it the methods.
+final class Shape {
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+    final int size;
+
+    Shape() {
+        this.slots = new HashMap<>();
+        this.size = 0;
+    }
+
+    private Shape(Shape parent, String field) {
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(field, parent.size);
+        this.size = parent.size + 1;
+    }
+
+    int slotOf(String field) {
+        Integer slot = this.slots.get(field);
+        return null == slot ? -1 : slot;
+    }
+
+    Shape withField(String field) {
+        Shape next = this.transitions.get(field);
+        if (null == next) {
+            next = new Shape(this, field);
+            this.transitions.put(field, next);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,67 @@
+package src.craftingInterpreters.mocha;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Script text read straight out of a memory-mapped file, one char per byte. That
+// is only right for ASCII, so map() decodes any file with a non-ASCII byte into
+// a String instead, and the Scanner sees the same chars as it would have from
+// a file read whole.
+final class Source implements CharSequence {
+    private final ByteBuffer bytes;
+
+    Source(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    static CharSequence map(Path path) throws IOException {
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (isAscii(bytes)) return new Source(bytes);
+        byte[] text = new byte[bytes.limit()];
+        bytes.get(0, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    // Tests eight bytes at a time for a high bit.
+    private static boolean isAscii(ByteBuffer bytes) {
+        int length = bytes.limit();
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES) {
+            if (0 != (bytes.getLong(i) & 0x8080808080808080L)) return false;
+        }
+        for (; i < length; i++) {
+            if (0 > bytes.get(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return this.bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (this.bytes.get(index) & 0xff);
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+        byte[] text = new byte[end - start];
+        this.bytes.get(start, text);
+        return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return this.subSequence(0, this.length());
+    }
+}
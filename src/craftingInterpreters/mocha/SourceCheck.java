@@ -0,0 +1,46 @@
+package src.craftingInterpreters.mocha;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Runs each case from a String and from a memory-mapped file holding the same
+// text as UTF-8, and reports any whose compile errors or program output differ
+// between the two. Exits 1 if one did.
+public class SourceCheck {
+    private static final String[][] CASES = {
+            {"ascii", "var a = \"plain\";\nprint a + \" text\";\n"},
+            {"non-ascii string literal", "print \"héllo ✓ 😀\";\nprint \"a\" + \"é\";\n"},
+            {"non-ascii comment", "// café ✓\nprint 1;\n"},
+            {"non-ascii outside a string", "var x = 1;\né;\nprint x;\n"},
+            {"lines after a multi-line non-ascii string", "var s = \"é\né\";\nprint s;\nprint -s;\n"},
+    };
+
+    public static void main(String[] args) {
+        Checks.compare(CASES, "string", source -> run(source), "mapped", source -> run(mapped(source)));
+    }
+
+    private static CharSequence mapped(String source) {
+        try {
+            Path file = Files.createTempFile("source-check", ".mocha");
+            file.toFile().deleteOnExit();
+            Files.writeString(file, source, StandardCharsets.UTF_8);
+            return Source.map(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String run(CharSequence source) {
+        Compilation compilation = Mocha.compile(null, source);
+        return Checks.capture(() -> {
+            if (compilation.hadError) {
+                compilation.printErrors(System.out);
+            } else {
+                new Interpreter().interpret(compilation.statements);
+            }
+        });
+    }
+}
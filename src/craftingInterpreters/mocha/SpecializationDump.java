@@ -0,0 +1,183 @@
+package src.craftingInterpreters.mocha;
+
+import java.io.PrintStream;
+import java.util.List;
+
+// Walks the program after it ran and prints the node each operator site settled on.
+class SpecializationDump implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final PrintStream out;
+
+    SpecializationDump(PrintStream out) {
+        this.out = out;
+    }
+
+    void dump(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            this.dump(statement);
+        }
+    }
+
+    private void dump(Stmt stmt) {
+        if (null != stmt) stmt.accept(this);
+    }
+
+    private void dump(Expr expr) {
+        if (null != expr) expr.accept(this);
+    }
+
+    private void report(Token operator, Object node) {
+        this.out.println("[line " + operator.line + "] '" + operator.lexeme + "' " + node);
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        this.dump(expr.left);
+        this.dump(expr.right);
+        this.report(expr.operator, expr.node);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        this.dump(expr.right);
+        this.report(expr.operator, expr.node);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        this.dump(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        this.dump(expr.callee);
+        for (Expr argument : expr.arguments) {
+            this.dump(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        this.dump(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        this.dump(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        for (Expr argument : expr.call.arguments) {
+            this.dump(argument);
+        }
+        this.dump(expr.body);
+        Token name = ((Expr.Variable) expr.call.callee).name;
+        this.report(name, expr.guardFailed ? "inlined, guard failed" : "inlined");
+        return null;
+    }
+
+    @Override
+    public Void visitInvariantExpr(Expr.Invariant expr) {
+        this.dump(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        this.dump(expr.left);
+        this.dump(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        this.dump(expr.object);
+        this.dump(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        this.dump(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            this.dump(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        this.dump(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        this.dump(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        this.dump(stmt.condition);
+        this.dump(stmt.thenBranch);
+        this.dump(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        this.dump(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        this.dump(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        this.dump(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        this.dump(stmt.condition);
+        this.dump(stmt.body);
+        return null;
+    }
+}
@@ -27,6 +27,7 @@ abstract class Stmt {
 
     static class Block extends Stmt {
         final List<Stmt> statements;
+        int declarations;
 
         Block(List<Stmt> statements) {
             this.statements = statements;
@@ -71,6 +72,10 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        Capture[] captures;
+        int calls;
+        JitCode compiled;
+
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
             this.params = params;
@@ -115,6 +120,7 @@ abstract class Stmt {
     static class Return extends Stmt {
         final Token keyword;
         final Expr value;
+        boolean tailCall;
 
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
@@ -145,6 +151,9 @@ abstract class Stmt {
     static class While extends Stmt {
         final Expr condition;
         final Stmt body;
+        int scope;
+        int invariants;
+        CountedLoop counted;
 
         While(Expr condition, Stmt body) {
             this.condition = condition;
@@ -0,0 +1,53 @@
+package src.craftingInterpreters.mocha;
+
+// Per-compilation table of identifier names. A name is copied out of the source
+// the first time it is seen and every later occurrence gets that same String, so
+// later stages can compare names by identity.
+final class Symbols {
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int count;
+
+    String intern(CharSequence source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int mask = this.names.length - 1;
+        int index = (hash ^ (hash >>> 16)) & mask;
+        for (String name = this.names[index]; null != name; name = this.names[index]) {
+            if (hash == this.hashes[index] && matches(name, source, start, end)) return name;
+            index = (index + 1) & mask;
+        }
+        String name = source.subSequence(start, end).toString();
+        this.names[index] = name;
+        this.hashes[index] = hash;
+        if (++this.count * 2 > this.names.length) this.grow();
+        return name;
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] names = this.names;
+        int[] hashes = this.hashes;
+        this.names = new String[names.length * 2];
+        this.hashes = new int[names.length * 2];
+        int mask = this.names.length - 1;
+        for (int i = 0; i < names.length; i++) {
+            if (null == names[i]) continue;
+            int index = (hashes[i] ^ (hashes[i] >>> 16)) & mask;
+            while (null != this.names[index]) {
+                index = (index + 1) & mask;
+            }
+            this.names[index] = names[i];
+            this.hashes[index] = hashes[i];
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.Arrays;
+
+// The tokens of one source packed into parallel primitive arrays, filled by
+// Scanner.scanArena and read by the Parser by index. Lexemes stay in the source
+// and a Token object is only made for a token the parser keeps in the tree.
+final class TokenArena {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final CharSequence source;
+    private final Symbols symbols;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int count;
+    // Literals of NUMBER and STRING tokens, by ascending token index.
+    private int[] literalTokens = new int[32];
+    private Object[] literalValues = new Object[32];
+    private int literalCount;
+    // The parser asks for literals in order, so the next one is usually here.
+    private int nextLiteral;
+
+    TokenArena(CharSequence source, Symbols symbols) {
+        this.source = source;
+        this.symbols = symbols;
+        // Real scripts average well over two characters a token, so the arrays
+        // are sized once up front instead of being copied as they fill.
+        int capacity = Math.max(256, source.length() / 2);
+        this.types = new byte[capacity];
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.lines = new int[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line, Object literal) {
+        if (this.count == this.types.length) {
+            int capacity = this.count * 2;
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+            this.lines = Arrays.copyOf(this.lines, capacity);
+        }
+        if (null != literal) {
+            if (this.literalCount == this.literalTokens.length) {
+                this.literalTokens = Arrays.copyOf(this.literalTokens, this.literalCount * 2);
+                this.literalValues = Arrays.copyOf(this.literalValues, this.literalCount * 2);
+            }
+            this.literalTokens[this.literalCount] = this.count;
+            this.literalValues[this.literalCount++] = literal;
+        }
+        this.types[this.count] = (byte) type.ordinal();
+        this.starts[this.count] = start;
+        this.lengths[this.count] = length;
+        this.lines[this.count++] = line;
+    }
+
+    int size() {
+        return this.count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[this.types[index]];
+    }
+
+    Object literal(int index) {
+        int found = this.nextLiteral;
+        if (found >= this.literalCount || index != this.literalTokens[found]) {
+            found = Arrays.binarySearch(this.literalTokens, 0, this.literalCount, index);
+            if (0 > found) return null;
+        }
+        this.nextLiteral = found + 1;
+        return this.literalValues[found];
+    }
+
+    Token token(int index) {
+        int start = this.starts[index];
+        TokenType type = this.type(index);
+        String lexeme = Scanner.lexeme(type, this.source, start, start + this.lengths[index], this.symbols);
+        Object literal = TokenType.NUMBER == type || TokenType.STRING == type ? this.literal(index) : null;
+        return new Token(type, lexeme, literal, this.lines[index]);
+    }
+}
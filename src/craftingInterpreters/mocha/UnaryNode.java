@@ -0,0 +1,68 @@
+package src.craftingInterpreters.mocha;
+
+import static src.craftingInterpreters.mocha.Interpreter.checkNumberOperand;
+import static src.craftingInterpreters.mocha.Interpreter.isTruthy;
+
+// Executable behaviour of an Expr.Unary site, specialized the same way as BinaryNode.
+abstract class UnaryNode {
+    static final UnaryNode UNINITIALIZED = new Uninitialized();
+    static final UnaryNode GENERIC = new Generic();
+
+    abstract Object execute(Expr.Unary site, Object right);
+
+    final Object deoptimize(Expr.Unary site, Object right) {
+        site.node = GENERIC;
+        return GENERIC.execute(site, right);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName();
+    }
+
+    private static final class Uninitialized extends UnaryNode {
+        private static final UnaryNode NUMBER_NEGATE = new NumberNegate();
+        private static final UnaryNode NOT = new Not();
+
+        @Override
+        Object execute(Expr.Unary site, Object right) {
+            UnaryNode node = GENERIC;
+            if (TokenType.BANG == site.operator.type) {
+                node = NOT;
+            } else if (TokenType.MINUS == site.operator.type && right instanceof Double) {
+                node = NUMBER_NEGATE;
+            }
+            site.node = node;
+            return node.execute(site, right);
+        }
+    }
+
+    static final class NumberNegate extends UnaryNode {
+        @Override
+        Object execute(Expr.Unary site, Object right) {
+            if (right instanceof Double value) return Numbers.box(-value);
+            return this.deoptimize(site, right);
+        }
+    }
+
+    private static final class Not extends UnaryNode {
+        @Override
+        Object execute(Expr.Unary site, Object right) {
+            return !isTruthy(right);
+        }
+    }
+
+    private static final class Generic extends UnaryNode {
+        @Override
+        Object execute(Expr.Unary site, Object right) {
+            switch (site.operator.type) {
+                case BANG:
+                    return !isTruthy(right);
+                case MINUS:
+                    checkNumberOperand(site.operator, right);
+                    return Numbers.box(-(double) right);
+            }
+            return null;
+        }
+    }
+}
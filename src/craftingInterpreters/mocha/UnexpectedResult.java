@@ -0,0 +1,12 @@
+package src.craftingInterpreters.mocha;
+
+// Thrown by the unboxed evaluation paths when a value turns out not to be a number.
+// Carries the value that was already computed so it is never evaluated twice.
+class UnexpectedResult extends RuntimeException {
+    final Object result;
+
+    UnexpectedResult(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+}
@@ -0,0 +1,579 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Stack-based bytecode interpreter, selected with --vm. Runs the chunks
+// produced by BytecodeCompiler with the same semantics as the tree-walking
+// Interpreter.
+class VM {
+    // Frames and the value stack live on the heap and grow on demand, so recursion
+    // depth is bounded by -Dmocha.stackBudget (bytes, default 64 MiB) and not by the
+    // Java stack. Every call makes room for its function's maxStack slots first.
+    private static final long STACK_BUDGET = Long.getLong("mocha.stackBudget", 64L << 20);
+    private static final int FRAMES_INITIAL = 64;
+    private static final int STACK_INITIAL = 1 << 14;
+    // Rough per-element costs used against the budget: a reference, a CallFrame.
+    private static final int SLOT_BYTES = 8;
+    private static final int FRAME_BYTES = 32;
+    private static final int TRACE_FRAMES = 16;
+
+    // Globals and instance fields hold NIL for a nil value, so that one map probe
+    // returning null always means the name is missing.
+    private static final Object NIL = new Object();
+    private final Map<String, Object> globals = new HashMap<>();
+    private Object[] stack = new Object[STACK_INITIAL];
+    private CallFrame[] frames = newFrames(new CallFrame[0], FRAMES_INITIAL);
+    private int stackTop;
+    private int frameCount;
+    private VmUpvalue openUpvalues;
+
+    VM() {
+        this.globals.put("clock", new VmNative(0, arguments -> System.currentTimeMillis() / 1000.0));
+    }
+
+    void interpret(VmFunction script) {
+        VmClosure closure = new VmClosure(script);
+        this.stack[this.stackTop++] = closure;
+        try {
+            this.callClosure(closure, 0, 0);
+            this.run();
+        } catch (RuntimeError error) {
+            Mocha.runtimeError(error);
+            this.resetStack();
+        }
+    }
+
+    // Popped slots are not cleared while running, since every reference store
+    // costs a GC barrier; whatever is left above the top is dropped here.
+    private void resetStack() {
+        if (STACK_INITIAL < this.stack.length) {
+            this.stack = new Object[STACK_INITIAL];
+            this.frames = newFrames(new CallFrame[0], FRAMES_INITIAL);
+        }
+        Arrays.fill(this.stack, null);
+        this.stackTop = 0;
+        this.frameCount = 0;
+        this.openUpvalues = null;
+    }
+
+    private void run() {
+        Object[] stack = this.stack;
+        CallFrame frame = this.frames[this.frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int base = frame.base;
+        int ip = frame.ip;
+        int sp = this.stackTop;
+
+        for (; ; ) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT: {
+                    stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    break;
+                }
+                case OpCode.NIL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = Boolean.TRUE;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = Boolean.FALSE;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+                case OpCode.GET_LOCAL:
+                    stack[sp] = stack[base + (code[ip++] & 0xff)];
+                    sp++;
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object value = this.globals.get(name);
+                    if (null == value) {
+                        throw this.error(frame, ip, "Undefined variable '" + name + "'");
+                    }
+                    stack[sp++] = NIL == value ? null : value;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    this.globals.put(name, stored(stack[--sp]));
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    // replace only writes a name that is there, and returns null if it is not.
+                    if (null == this.globals.replace(name, stored(stack[sp - 1]))) {
+                        throw this.error(frame, ip, "Undefined variable '" + name + "'");
+                    }
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    stack[sp++] = upvalue.isOpen() ? stack[upvalue.slot] : upvalue.closed;
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen()) {
+                        stack[upvalue.slot] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(stack[sp - 1] instanceof VmInstance instance)) {
+                        throw this.error(frame, ip, "Only instances have property");
+                    }
+                    Object value = instance.fields.get(name);
+                    if (null != value) {
+                        stack[sp - 1] = NIL == value ? null : value;
+                        break;
+                    }
+                    VmClosure method = instance.klass.methods.get(name);
+                    if (null == method) {
+                        throw this.error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new VmBoundMethod(instance, method);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(stack[sp - 2] instanceof VmInstance instance)) {
+                        throw this.error(frame, ip, "Only instances have fields.");
+                    }
+                    Object value = stack[--sp];
+                    instance.fields.put(name, stored(value));
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClass superclass = (VmClass) stack[--sp];
+                    VmClosure method = superclass.methods.get(name);
+                    if (null == method) {
+                        throw this.error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new VmBoundMethod(stack[sp - 1], method);
+                    break;
+                }
+                case OpCode.CHECK_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (!(stack[sp - 1] instanceof VmInstance instance)) {
+                        throw this.error(frame, ip, "Only instances have property");
+                    }
+                    if (null == instance.fields.get(name) && null == instance.klass.methods.get(name)) {
+                        throw this.error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    break;
+                }
+                case OpCode.CHECK_INSTANCE: {
+                    if (!(stack[sp - 1] instanceof VmInstance)) {
+                        throw this.error(frame, ip, "Only instances have fields.");
+                    }
+                    break;
+                }
+                case OpCode.CHECK_SUPER: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClass superclass = (VmClass) stack[--sp];
+                    if (null == superclass.methods.get(name)) {
+                        throw this.error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    if (!(stack[sp - 2] instanceof Double left) || !(stack[sp - 1] instanceof Double right)) {
+                        throw this.error(frame, ip, "Operand Must Be A Numbers.");
+                    }
+                    sp--;
+                    stack[sp - 1] = left > right;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    if (!(stack[sp - 2] instanceof Double left) || !(stack[sp - 1] instanceof Double right)) {
+                        throw this.error(frame, ip, "Operand Must Be A Numbers.");
+                    }
+                    sp--;
+                    stack[sp - 1] = left >= right;
+                    break;
+                }
+                case OpCode.LESS: {
+                    if (!(stack[sp - 2] instanceof Double left) || !(stack[sp - 1] instanceof Double right)) {
+                        throw this.error(frame, ip, "Operand Must Be A Numbers.");
+                    }
+                    sp--;
+                    stack[sp - 1] = left < right;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    if (!(stack[sp - 2] instanceof Double left) || !(stack[sp - 1] instanceof Double right)) {
+                        throw this.error(frame, ip, "Operand Must Be A Numbers.");
+                    }
+                    sp--;
+                    stack[sp - 1] = left <= right;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object left = stack[sp - 2];
+                    Object right = stack[sp - 1];
+                    if (left instanceof Double a && right instanceof Double b) {
+                        stack[sp - 2] = Numbers.box(a + b);
+                    } else if (left instanceof String a && right instanceof String b) {
+                        stack[sp - 2] = a + b;
+                    } else {
+                        throw this.error(frame, ip, "Operands must be two numbers or two strings.");
+                    }
+                    sp--;
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    if (!(stack[sp - 2] instanceof Double left) || !(stack[sp - 1] instanceof Double right)) {
+                        throw this.error(frame, ip, "Operand Must Be A Numbers.");
+                    }
+                    sp--;
+                    stack[sp - 1] = Numbers.box(left - right);
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    if (!(stack[sp - 2] instanceof Double left) || !(stack[sp - 1] instanceof Double right)) {
+                        throw this.error(frame, ip, "Operand Must Be A Numbers.");
+                    }
+                    sp--;
+                    stack[sp - 1] = Numbers.box(left * right);
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    if (!(stack[sp - 2] instanceof Double left) || !(stack[sp - 1] instanceof Double right)) {
+                        throw this.error(frame, ip, "Operand Must Be A Numbers.");
+                    }
+                    sp--;
+                    stack[sp - 1] = Numbers.box(left / right);
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    if (!(stack[sp - 1] instanceof Double value)) {
+                        throw this.error(frame, ip, "Operand Must Be A Number.");
+                    }
+                    stack[sp - 1] = Numbers.box(-value);
+                    break;
+                }
+                case OpCode.PRINT:
+                    System.out.println(Interpreter.stringify(stack[--sp]));
+                    break;
+                case OpCode.JUMP:
+                    ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (isTruthy(stack[sp - 1])) {
+                        ip += 2;
+                    } else {
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    }
+                    break;
+                case OpCode.LOOP:
+                    ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+                    break;
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    this.stackTop = sp;
+                    this.callValue(stack[sp - 1 - argCount], argCount, frame, ip);
+                    stack = this.stack;
+                    frame = this.frames[this.frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                    sp = this.stackTop;
+                    break;
+                }
+                case OpCode.INVOKE: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    frame.ip = ip;
+                    this.stackTop = sp;
+                    this.invoke(name, argCount, frame, ip);
+                    stack = this.stack;
+                    frame = this.frames[this.frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                    sp = this.stackTop;
+                    break;
+                }
+                case OpCode.SUPER_INVOKE: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int argCount = code[ip + 2] & 0xff;
+                    ip += 3;
+                    VmClass superclass = (VmClass) stack[--sp];
+                    VmClosure method = superclass.methods.get(name);
+                    if (null == method) {
+                        throw this.error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    frame.ip = ip;
+                    this.stackTop = sp;
+                    this.checkArity(method.function.arity, argCount, frame, ip);
+                    this.callClosure(method, argCount, sp - argCount - 1);
+                    stack = this.stack;
+                    frame = this.frames[this.frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                    sp = this.stackTop;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    VmFunction function = (VmFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(function);
+                    for (int i = 0; i < function.upvalueCount; i++) {
+                        boolean isLocal = 0 != code[ip++];
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal
+                                ? this.captureUpvalue(base + index)
+                                : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    this.closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    this.closeUpvalues(base);
+                    this.frameCount--;
+                    if (0 == this.frameCount) {
+                        this.resetStack();
+                        return;
+                    }
+                    // Drop the callee, its arguments and locals, leaving the result in their place.
+                    stack[base] = result;
+                    sp = base + 1;
+                    frame = this.frames[this.frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    base = frame.base;
+                    ip = frame.ip;
+                    break;
+                }
+                case OpCode.CLASS: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    stack[sp++] = new VmClass(name);
+                    break;
+                }
+                case OpCode.INHERIT: {
+                    if (!(stack[sp - 2] instanceof VmClass superclass)) {
+                        throw this.error(frame, ip, "Superclass must be a class");
+                    }
+                    ((VmClass) stack[sp - 1]).methods.putAll(superclass.methods);
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure method = (VmClosure) stack[--sp];
+                    ((VmClass) stack[sp - 1]).methods.put(name, method);
+                    break;
+                }
+                default:
+                    throw this.error(frame, ip, "Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    // The callee sits below its arguments; on return the stackTop and the
+    // current frame reflect whatever needs to run next.
+    private void callValue(Object callee, int argCount, CallFrame frame, int ip) {
+        if (callee instanceof VmClosure closure) {
+            this.checkArity(closure.function.arity, argCount, frame, ip);
+            this.callClosure(closure, argCount, this.stackTop - argCount - 1);
+        } else if (callee instanceof VmBoundMethod bound) {
+            this.checkArity(bound.method.function.arity, argCount, frame, ip);
+            this.stack[this.stackTop - argCount - 1] = bound.receiver;
+            this.callClosure(bound.method, argCount, this.stackTop - argCount - 1);
+        } else if (callee instanceof VmClass klass) {
+            VmClosure initializer = klass.methods.get("init");
+            int arity = null == initializer ? 0 : initializer.function.arity;
+            this.checkArity(arity, argCount, frame, ip);
+            this.stack[this.stackTop - argCount - 1] = new VmInstance(klass);
+            if (null != initializer) {
+                this.callClosure(initializer, argCount, this.stackTop - argCount - 1);
+            }
+        } else if (callee instanceof VmNative function) {
+            this.checkArity(function.arity, argCount, frame, ip);
+            Object[] arguments = new Object[argCount];
+            System.arraycopy(this.stack, this.stackTop - argCount, arguments, 0, argCount);
+            Object result = function.body.call(arguments);
+            this.stackTop -= argCount;
+            this.stack[this.stackTop - 1] = result;
+        } else {
+            throw this.error(frame, ip, "Can only call functions and classes.");
+        }
+    }
+
+    private static Object stored(Object value) {
+        return null == value ? NIL : value;
+    }
+
+    private void invoke(String name, int argCount, CallFrame frame, int ip) {
+        Object receiver = this.stack[this.stackTop - argCount - 1];
+        if (!(receiver instanceof VmInstance instance)) {
+            throw this.error(frame, ip, "Only instances have property");
+        }
+        Object field = instance.fields.get(name);
+        if (null != field) {
+            if (NIL == field) field = null;
+            this.stack[this.stackTop - argCount - 1] = field;
+            this.callValue(field, argCount, frame, ip);
+            return;
+        }
+        VmClosure method = instance.klass.methods.get(name);
+        if (null == method) {
+            throw this.error(frame, ip, "Undefined property '" + name + "'.");
+        }
+        this.checkArity(method.function.arity, argCount, frame, ip);
+        this.callClosure(method, argCount, this.stackTop - argCount - 1);
+    }
+
+    private void checkArity(int arity, int argCount, CallFrame frame, int ip) {
+        if (arity != argCount) {
+            throw this.error(frame, ip, "Expected " + arity + " arguments but got " + argCount + ".");
+        }
+    }
+
+    // slot is the stack index of the callee, which becomes slot zero of the new frame.
+    private void callClosure(VmClosure closure, int argCount, int slot) {
+        int needed = slot + closure.function.maxStack;
+        if (this.frames.length == this.frameCount || this.stack.length < needed) {
+            this.grow(needed);
+        }
+        CallFrame frame = this.frames[this.frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = slot;
+    }
+
+    private void grow(int needed) {
+        int frames = this.frames.length;
+        int slots = this.stack.length;
+        if (frames == this.frameCount) frames *= 2;
+        while (slots < needed) slots *= 2;
+        if (STACK_BUDGET < (long) slots * SLOT_BYTES + (long) frames * FRAME_BYTES) {
+            throw this.stackOverflow();
+        }
+        this.stack = Arrays.copyOf(this.stack, slots);
+        this.frames = newFrames(this.frames, frames);
+    }
+
+    private static CallFrame[] newFrames(CallFrame[] frames, int length) {
+        CallFrame[] grown = Arrays.copyOf(frames, length);
+        for (int i = frames.length; i < length; i++) {
+            grown[i] = new CallFrame();
+        }
+        return grown;
+    }
+
+    // Lists the innermost frames and the outermost one, like clox's runtime errors.
+    private RuntimeError stackOverflow() {
+        StringBuilder trace = new StringBuilder();
+        for (int i = this.frameCount - 1; 0 <= i; i--) {
+            int shown = this.frameCount - 1 - i;
+            if (TRACE_FRAMES == shown && 0 < i) {
+                trace.append("... ").append(i).append(" more frames\n");
+                i = 0;
+            }
+            CallFrame frame = this.frames[i];
+            VmFunction function = frame.closure.function;
+            trace.append("[line ").append(function.chunk.lines[frame.ip - 1]).append("] in ")
+                    .append(null == function.name ? "script" : function.name + "()");
+            if (0 < i) trace.append('\n');
+        }
+        CallFrame top = this.frames[this.frameCount - 1];
+        return new RuntimeError(top.closure.function.chunk.lines[top.ip - 1], "Stack overflow.", trace.toString());
+    }
+
+    private VmUpvalue captureUpvalue(int slot) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = this.openUpvalues;
+        while (null != upvalue && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (null != upvalue && upvalue.slot == slot) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if (null == previous) {
+            this.openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (null != this.openUpvalues && this.openUpvalues.slot >= last) {
+            VmUpvalue upvalue = this.openUpvalues;
+            upvalue.closed = this.stack[upvalue.slot];
+            upvalue.slot = -1;
+            this.openUpvalues = upvalue.next;
+        }
+    }
+
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.function.chunk.lines[ip - 1], message);
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (null == object) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    private static boolean isEqual(Object left, Object right) {
+        if (null == left && null == right) return true;
+        if (null == left) return false;
+        return left.equals(right);
+    }
+
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        int base;
+    }
+}
@@ -0,0 +1,20 @@
+package src.craftingInterpreters.mocha;
+
+class VmFunction {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity;
+    int upvalueCount;
+    // Most stack slots a call uses, counting the callee and its arguments.
+    int maxStack;
+
+    VmFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if (null == this.name) return "<script>";
+        return "<fn " + this.name + ">";
+    }
+}
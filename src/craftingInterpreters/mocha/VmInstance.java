@@ -0,0 +1,19 @@
+package src.craftingInterpreters.mocha;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class VmInstance {
+    final VmClass klass;
+    // A nil field holds VM.NIL rather than null.
+    final Map<String, Object> fields = new HashMap<>();
+
+    VmInstance(VmClass klass) {
+        this.klass = klass;
+    }
+
+    @Override
+    public String toString() {
+        return this.klass.name + " Instance";
+    }
+}
@@ -0,0 +1,20 @@
+package src.craftingInterpreters.mocha;
+
+class VmNative {
+    final int arity;
+    final Body body;
+
+    VmNative(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    interface Body {
+        Object call(Object[] arguments);
+    }
+}
@@ -0,0 +1,18 @@
+package src.craftingInterpreters.mocha;
+
+// A captured variable. While open it points at a slot on the VM stack;
+// once the slot goes out of scope the value is moved into the cell.
+class VmUpvalue {
+    int slot;
+    Object closed;
+    VmUpvalue next;
+
+    VmUpvalue(int slot, VmUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+
+    boolean isOpen() {
+        return 0 <= this.slot;
+    }
+}